@@ -3,18 +3,39 @@ package main.java;
 // Git - Rebase - ~2 - reword "fixed redundancy" fails
 
 
+import main.java.util.ConcurrentHistogram;
+import main.java.util.DatasetGenerator;
+import main.java.util.Histogram;
+import main.java.util.HtapScheduler;
+import main.java.util.LatencyHistogram;
+import main.java.util.LatencyReport;
+import main.java.util.Pacer;
+import main.java.util.Phase;
 import main.java.util.RandomParameters;
-import main.java.util.Worker;
+import main.java.util.RingBufferQueue;
+import main.java.util.WaitStrategy;
+import main.java.util.WorkerPool;
 import main.java.util.Workload;
+import main.java.util.WorkloadClass;
 
+import com.sun.management.ThreadMXBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Shit, this comment should be its own commit.
  */
 public class VersionControl {
 
-    private static final LinkedList<Workload.SubmittedProcedure> workQueue = new LinkedList<>();
+    private static final RingBufferQueue<Workload.SubmittedProcedure> workQueue = new RingBufferQueue<>(Workload.RATE_QUEUE_LIMIT);
 
     public static void main(String[] args) throws Exception {
         int warehouses = 4;
@@ -30,18 +51,437 @@ public class VersionControl {
     }
 
 
-    public static void testWorkStuff() {
+    public static void testWorkStuff() throws InterruptedException {
         int tps = 200;
+        int workers = 4;
 
         Workload workload = new Workload(workQueue, tps);
-        Worker worker = new Worker(workQueue, tps);
+        WorkerPool pool = new WorkerPool(workQueue, tps, workers, WorkerPool.ThreadMode.PLATFORM);
+
+        pool.start();
+
+        workload.executeWorkload();
+
+        pool.stop();
+
+        System.out.println("Completed " + pool.getCompletedCount() + " procedures with " + workers + " workers");
+        System.out.println(LatencyReport.summarize(pool.getLatencyRecords()));
+        System.out.println(LatencyReport.summarizeWindows(pool.getLatencyRecord(), 1));
+        System.out.println(pool.getBreakdown());
+    }
+
+    /**
+     * Sweeps the load over a ramp, steps and a sine wave in a single run, so the report
+     * shows the latencies per phase.
+     */
+    public static void testPhaseStuff() throws InterruptedException {
+        int workers = 4;
+        List<Phase> phases = Arrays.asList(
+                Phase.constant(10, 200),
+                Phase.ramp(20, 100, 1000),
+                Phase.step(20, 200, 800, 4).arrival(Phase.Arrival.POISSON),
+                Phase.sine(20, 400, 300, 10));
+
+        Workload workload = new Workload(workQueue, phases);
+        WorkerPool pool = new WorkerPool(workQueue, 200, workers, WorkerPool.ThreadMode.PLATFORM);
+
+        pool.start();
+
+        workload.executeWorkload();
+
+        pool.stop();
+
+        System.out.println("Completed " + pool.getCompletedCount() + " procedures with " + workers + " workers");
+        System.out.println(LatencyReport.summarize(pool.getLatencyRecords()));
+        System.out.println(LatencyReport.summarizeWindows(pool.getLatencyRecord(), 1));
+        System.out.println(pool.getBreakdown());
+    }
+
+    /**
+     * Scales the number of workers from 1 to thousands, on virtual threads when the JVM
+     * supports them. Every procedure takes 50 ms and the offered load is 90% of what the
+     * workers can do, so throughput should grow linearly with the workers until the
+     * machine (or the producer) saturates. Efficiency is the throughput relative to that
+     * ideal.
+     */
+    public static void testScalingStuff() throws InterruptedException {
+        int[] workerCounts = {1, 10, 100, 1000, 2000, 4000};
+        long serviceTimeUs = 50000;
+        int seconds = 10;
+        WorkerPool.ThreadMode mode = WorkerPool.isVirtualThreadSupported()
+                ? WorkerPool.ThreadMode.VIRTUAL : WorkerPool.ThreadMode.PLATFORM;
+
+        List<String> results = new ArrayList<>();
+        for (int workers : workerCounts) {
+            double capacity = workers * 1000000.0 / serviceTimeUs;
+            int tps = Math.max(1, (int) (0.9 * capacity));
+            RingBufferQueue<Workload.SubmittedProcedure> queue =
+                    new RingBufferQueue<>(Math.max(Workload.RATE_QUEUE_LIMIT, tps));
+
+            WorkerPool pool = new WorkerPool(queue, tps, workers, mode);
+            pool.setServiceTimeUs(serviceTimeUs);
+            pool.setWaitStrategy(WaitStrategy.Type.BLOCKING);
+            Workload workload = new Workload(queue, Collections.singletonList(Phase.constant(seconds, tps)));
+            workload.setWaitStrategy(pool.getWaitStrategy());
+
+            pool.start();
+            workload.executeWorkload();
+            pool.stop();
+
+            double throughput = pool.getCompletedCount() / (double) seconds;
+            results.add(String.format("%5d %s workers: offered %8d TPS, completed %9.1f TPS, efficiency %5.1f%%, dropped %d",
+                    workers, pool.getThreadMode(), tps, throughput, 100 * throughput / (0.9 * capacity),
+                    workload.getDroppedCount()));
+        }
+
+        for (String result : results)
+            System.out.println(result);
+    }
+
+    /**
+     * Runs TPC-C style transactions and TPC-H style queries side by side in their own
+     * lanes, once without and once with the queries held back while more than 50
+     * transactions are queued, and compares the transaction latencies.
+     */
+    public static void testHtapStuff() throws InterruptedException {
+        List<String> reports = new ArrayList<>();
+        for (int threshold : new int[]{-1, 50}) {
+            HtapScheduler scheduler = newHtapScheduler();
+            scheduler.setOlapDeferThreshold(threshold);
+            scheduler.run();
+            reports.add("OLAP defer threshold " + threshold + ":\n" + scheduler.report());
+        }
+
+        for (String report : reports)
+            System.out.println(report + "\n");
+    }
+
+    private static HtapScheduler newHtapScheduler() {
+        HtapScheduler.Lane oltp = new HtapScheduler.Lane(WorkloadClass.OLTP,
+                Collections.singletonList(Phase.constant(30, 400).mix(45, 43, 4, 4, 4)), 4)
+                .serviceTimeUs(5000);
+
+        double[] queries = new double[22];
+        Arrays.fill(queries, 1.0);
+        HtapScheduler.Lane olap = new HtapScheduler.Lane(WorkloadClass.OLAP,
+                Collections.singletonList(Phase.constant(30, 2).arrival(Phase.Arrival.POISSON).mix(queries)), 2)
+                .serviceTimeUs(500000)
+                .overloadPolicy(Workload.OverloadPolicy.UNBOUNDED_WITH_ALARM);
+
+        HtapScheduler scheduler = new HtapScheduler();
+        scheduler.addLane(oltp).addLane(olap);
+        return scheduler;
+    }
+
+    /**
+     * Compares the pacing strategies at 50k TPS, for regular and Poisson arrivals. No
+     * workers take from the queue, so only the producer side is measured.
+     */
+    public static void testPacerStuff() {
+        for (Phase.Arrival arrival : Phase.Arrival.values()) {
+            for (Pacer.Strategy strategy : Pacer.Strategy.values()) {
+                Workload workload = new Workload(workQueue,
+                        Collections.singletonList(Phase.constant(5, 50000).arrival(arrival)));
+                workload.setPacingStrategy(strategy);
+                workload.executeWorkload();
+            }
+        }
+    }
+
+    /**
+     * Measures the bytes allocated per transaction once the workload has warmed up, for
+     * the producer thread and for all threads together. With pooled procedure slots the
+     * producer should not allocate at all. What the workers allocate is the latency
+     * record growing its chunks and the occasional log line.
+     */
+    public static void testAllocationStuff() throws InterruptedException {
+        int tps = 500;
+        int workers = 4;
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        WorkerPool pool = new WorkerPool(workQueue, tps, workers, WorkerPool.ThreadMode.PLATFORM);
+        pool.start();
 
-        Thread workThread = new Thread(worker);
-        workThread.start();
+        // Warm up, so class loading and JIT compilation are not measured
+        new Workload(workQueue, Collections.singletonList(Phase.constant(5, tps))).executeWorkload();
+
+        Workload workload = new Workload(workQueue, Collections.singletonList(Phase.constant(10, tps)));
+        long completed = pool.getCompletedCount();
+        long producer = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long total = allocatedBytes(threads);
 
         workload.executeWorkload();
 
-        workThread.interrupt();
+        producer = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - producer;
+        total = allocatedBytes(threads) - total;
+        completed = pool.getCompletedCount() - completed;
+
+        pool.stop();
+
+        System.out.println(String.format("Producer: %.2f bytes per transaction, all threads: %.2f bytes per transaction (%d transactions)",
+                producer / (double) completed, total / (double) completed, completed));
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Compares the wait strategies of idle workers at 1k, 10k and 50k TPS: the handoff
+     * latency from posting an item to a consumer taking it, against the CPU time the
+     * consumers used, in cores.
+     */
+    public static void testWaitStuff() throws InterruptedException {
+        int[] rates = {1000, 10000, 50000};
+        int consumers = 2;
+
+        for (int tps : rates) {
+            for (WaitStrategy.Type type : WaitStrategy.Type.values())
+                measureWait(type, tps, consumers, 2);
+        }
     }
 
+    private static void measureWait(WaitStrategy.Type type, int tps, int consumers, int seconds)
+            throws InterruptedException {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RingBufferQueue<Long> queue = new RingBufferQueue<>(Workload.RATE_QUEUE_LIMIT);
+        WaitStrategy wait = new WaitStrategy(type);
+        LatencyHistogram[] handoff = new LatencyHistogram[consumers];
+        long[] cpuNs = new long[consumers];
+        Thread[] workers = new Thread[consumers];
+
+        for (int c = 0; c < consumers; c++) {
+            int id = c;
+            handoff[id] = new LatencyHistogram(1000000000L, 3);
+            workers[id] = new Thread(() -> {
+                long startCpu = threads.getCurrentThreadCpuTime();
+                int idleCount = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    Long posted = queue.poll();
+                    if (posted == null) {
+                        wait.idle(queue, idleCount++);
+                        continue;
+                    }
+                    idleCount = 0;
+                    handoff[id].record(System.nanoTime() - posted);
+                }
+                cpuNs[id] = threads.getCurrentThreadCpuTime() - startCpu;
+            });
+            workers[id].start();
+        }
+
+        // Post at the given rate, as precisely as we can
+        Pacer pacer = new Pacer(Pacer.Strategy.PARK_SPIN);
+        long interval = 1000000000L / tps;
+        long start = System.nanoTime();
+        for (long next = start; next < start + seconds * 1000000000L; next += interval) {
+            pacer.awaitUntil(next);
+            queue.offer(System.nanoTime());
+            wait.signal();
+        }
+
+        for (Thread worker : workers)
+            worker.interrupt();
+        for (Thread worker : workers)
+            worker.join();
+
+        LatencyHistogram total = handoff[0].copyConfiguration();
+        long totalCpuNs = 0;
+        for (int c = 0; c < consumers; c++) {
+            total.add(handoff[c]);
+            totalCpuNs += cpuNs[c];
+        }
+
+        System.out.println(String.format("%-9s %6d TPS: handoff p50=%d ns, p99=%d ns, max=%d ns, consumer CPU %.2f cores",
+                type, tps, total.getValueAtPercentile(50), total.getValueAtPercentile(99), total.getMax(),
+                totalCpuNs / (seconds * 1000000000.0)));
+    }
+
+    /**
+     * Compares the ring buffer against the previous LinkedList work queue (guarded by a
+     * lock, since it is not safe otherwise) at 10k, 100k and 1M TPS with one producer and
+     * one consumer. Both queues drop the oldest entry once RATE_QUEUE_LIMIT is exceeded.
+     */
+    public static void testQueueStuff() throws InterruptedException {
+        int[] rates = {10000, 100000, 1000000};
+
+        for (int tps : rates) {
+            LinkedList<Integer> list = new LinkedList<>();
+            compareQueue("LinkedList", tps, value -> {
+                synchronized (list) {
+                    list.add(value);
+                    while (list.size() > Workload.RATE_QUEUE_LIMIT)
+                        list.remove();
+                }
+                return true;
+            }, () -> {
+                synchronized (list) {
+                    return list.poll();
+                }
+            });
+
+            RingBufferQueue<Integer> ring = new RingBufferQueue<>(Workload.RATE_QUEUE_LIMIT);
+            compareQueue("RingBuffer", tps, value -> {
+                while (!ring.offer(value))
+                    ring.poll();
+                return true;
+            }, ring::poll);
+        }
+    }
+
+    private static void compareQueue(String name, int tps, Predicate<Integer> offer, Supplier<Integer> poll)
+            throws InterruptedException {
+        // Preallocate the elements and their submission times so the measurement
+        // only covers the queue itself.
+        Integer[] elements = new Integer[tps];
+        long[] submitted = new long[tps];
+        for (int i = 0; i < tps; i++)
+            elements[i] = i;
+
+        long[] received = new long[1];
+        long[] latencySum = new long[1];
+        long[] latencyMax = new long[1];
+
+        Thread consumer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                Integer value = poll.get();
+                if (value == null)
+                    continue;
+
+                long latency = System.nanoTime() - submitted[value];
+                latencySum[0] += latency;
+                latencyMax[0] = Math.max(latencyMax[0], latency);
+                received[0]++;
+            }
+        });
+        consumer.start();
+
+        // Offer one element per interval for one second, spinning between arrivals
+        long intervalNs = 1000000000L / tps;
+        long start = System.nanoTime();
+        for (int i = 0; i < tps; i++) {
+            long next = start + i * intervalNs;
+            while (System.nanoTime() < next)
+                Thread.onSpinWait();
+
+            submitted[i] = System.nanoTime();
+            offer.test(elements[i]);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Give the consumer a moment to drain the queue
+        Thread.sleep(100);
+        consumer.interrupt();
+        consumer.join();
+
+        System.out.println(String.format("%-10s %8d TPS: offered in %5d ms, delivered %8d, mean handoff %8.1f us, max %9.1f us",
+                name, tps, elapsed / 1000000, received[0],
+                received[0] == 0 ? 0.0 : latencySum[0] / (double) received[0] / 1000.0, latencyMax[0] / 1000.0));
+    }
+
+    /**
+     * Compares the synchronized Histogram against the ConcurrentHistogram when 1 to 64
+     * threads count a transaction mix at the same time, both by key and by dense id.
+     */
+    public static void testHistogramStuff() throws InterruptedException {
+        String[] mix = {"NewOrder", "Payment", "OrderStatus", "Delivery", "StockLevel", "Q1", "Q6", "Q14"};
+        int putsPerThread = 1000000;
+
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Histogram<String> locked = new Histogram<>();
+            measureHistogram("Histogram", threads, putsPerThread, i -> locked.put(mix[i % mix.length]));
+
+            ConcurrentHistogram<String> striped = new ConcurrentHistogram<>();
+            measureHistogram("Concurrent", threads, putsPerThread, i -> striped.put(mix[i % mix.length]));
+
+            ConcurrentHistogram<String> dense = new ConcurrentHistogram<>();
+            int[] ids = new int[mix.length];
+            for (int i = 0; i < mix.length; i++)
+                ids[i] = dense.register(mix[i]);
+            measureHistogram("Concurrent ids", threads, putsPerThread, i -> dense.put(ids[i % ids.length]));
+        }
+    }
+
+    private static void measureHistogram(String name, int threads, int putsPerThread, IntConsumer put)
+            throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < putsPerThread; i++)
+                    put.accept(i + offset);
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers)
+            worker.start();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - start;
+
+        double opsPerSecond = threads * (double) putsPerThread / (elapsed / 1000000000.0);
+        System.out.println(String.format("%-14s %2d threads: %8.1f M puts/s", name, threads, opsPerSecond / 1000000.0));
+    }
+
+    /**
+     * Times generating a million nationkeys and phone country codes one call at a time
+     * against the bulk fills, sequential and split over fork-join tasks.
+     */
+    public static void testParameterStuff() {
+        int count = 1000000;
+        RandomParameters random = new RandomParameters("zipfian", 4);
+
+        long start = System.nanoTime();
+        List<String> nations = new ArrayList<>(count);
+        List<String> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nations.add(random.getRandomNation());
+            codes.add(random.getRandomPhoneCountryCode());
+        }
+        printElapsed("Per call", start);
+
+        int[] nationkeys = new int[count];
+        int[] countryCodes = new int[count];
+
+        start = System.nanoTime();
+        random.fillNationKeys(nationkeys);
+        random.fillPhoneCountryCodes(countryCodes);
+        printElapsed("Bulk", start);
+
+        start = System.nanoTime();
+        SplittableRandom rng = new SplittableRandom(42);
+        random.fillNationKeysParallel(nationkeys, rng);
+        RandomParameters.fillParallel(count, rng.split(),
+                (from, to, r) -> random.fillPhoneCountryCodes(countryCodes, from, to, r));
+        printElapsed("Bulk parallel", start);
+    }
+
+    private static void printElapsed(String name, long startNs) {
+        System.out.println(String.format("%-14s %8.1f ms", name, (System.nanoTime() - startNs) / 1000000.0));
+    }
+
+    /**
+     * Times generating the dataset for the given number of warehouses into a temporary
+     * directory, on one thread and on the common fork-join pool.
+     */
+    public static void testDatasetStuff(int warehouses) throws IOException {
+        Path directory = Files.createTempDirectory("dataset");
+
+        for (int threads : new int[]{1, ForkJoinPool.getCommonPoolParallelism()}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long start = System.nanoTime();
+            long bytes = new DatasetGenerator("uniform", warehouses, pool).generate(directory);
+            double seconds = (System.nanoTime() - start) / 1000000000.0;
+            pool.shutdown();
+
+            System.out.println(String.format("%2d threads: %d warehouses, %.1f MB in %.2f s (%.1f MB/s)",
+                    threads, warehouses, bytes / 1e6, seconds, bytes / 1e6 / seconds));
+        }
+    }
 }
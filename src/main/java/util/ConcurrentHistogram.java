@@ -0,0 +1,218 @@
+package main.java.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Histogram that can be updated by many threads at once without taking a lock.
+ * <p>
+ * Every key is registered once and gets a dense int id. The count of every id is kept in
+ * a LongAdder, which stripes the updates of concurrent threads over separate cells. Hot
+ * paths can register their keys up front and call put(int) with the id, which does not
+ * hash or box anything. Reading a count sums the cells, so reads are more expensive than
+ * with a Histogram; the result is a snapshot that may miss concurrent updates.
+ */
+public class ConcurrentHistogram<X> {
+
+    private final ConcurrentHashMap<X, Integer> ids = new ConcurrentHashMap<X, Integer>();
+    private final List<X> keys = new ArrayList<X>();
+    private volatile LongAdder[] counts = new LongAdder[0];
+
+    /**
+     * A switchable flag that determines whether non-zero entries are kept or removed
+     */
+    private final boolean keep_zero_entries;
+
+    /**
+     * Constructor
+     */
+    public ConcurrentHistogram() {
+        this(false);
+    }
+
+    /**
+     * Constructor
+     */
+    public ConcurrentHistogram(boolean keepZeroEntries) {
+        this.keep_zero_entries = keepZeroEntries;
+    }
+
+    /**
+     * Returns the dense id of the value, registering it if this is the first time
+     * the value is seen.
+     */
+    public int register(X value) {
+        Integer id = ids.get(value);
+        if (id != null)
+            return id;
+
+        synchronized (keys) {
+            id = ids.get(value);
+            if (id != null)
+                return id;
+
+            // Publish the grown counts before the id, so that anyone who sees the id
+            // also sees its counter
+            int newId = keys.size();
+            LongAdder[] grown = new LongAdder[newId + 1];
+            System.arraycopy(counts, 0, grown, 0, newId);
+            grown[newId] = new LongAdder();
+            counts = grown;
+
+            keys.add(value);
+            ids.put(value, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Increments the number of occurrences of the value with the given id by one
+     */
+    public void put(int id) {
+        counts[id].increment();
+    }
+
+    /**
+     * Increments the number of occurrences of the value with the given id by count
+     */
+    public void put(int id, int count) {
+        counts[id].add(count);
+    }
+
+    /**
+     * Increments the number of occurrences of this particular value by one
+     *
+     * @param value the value to be added to the histogram
+     */
+    public void put(X value) {
+        if (value == null) return;
+        put(register(value));
+    }
+
+    /**
+     * Increments the number of occurrences of this particular value i
+     *
+     * @param value the value to be added to the histogram
+     */
+    public void put(X value, int i) {
+        if (value == null) return;
+        put(register(value), i);
+    }
+
+    /**
+     * Increment multiple values by the given count
+     */
+    public void putAll(Collection<X> values, int count) {
+        for (X v : values) {
+            this.put(v, count);
+        }
+    }
+
+    /**
+     * Add all the entries from the provided Histogram into this objects totals
+     */
+    public void putHistogram(Histogram<X> other) {
+        for (X value : other.values()) {
+            int count = other.get(value, 0);
+            if (count > 0) this.put(value, count);
+        } // FOR
+    }
+
+    /**
+     * Returns the current count for the given value
+     * If the value was never entered into the histogram, then the count will be null
+     */
+    public Integer get(X value) {
+        Integer id = ids.get(value);
+        return (id == null ? null : (int) counts[id].sum());
+    }
+
+    /**
+     * Returns the current count for the given value.
+     * If that value was never entered in the histogram, then the value returned will be value_if_null
+     */
+    public int get(X value, int value_if_null) {
+        Integer count = this.get(value);
+        return (count == null ? value_if_null : count);
+    }
+
+    /**
+     * Returns the current count of the value with the given id
+     */
+    public long get(int id) {
+        return counts[id].sum();
+    }
+
+    /**
+     * Return all the values stored in the histogram
+     */
+    public Collection<X> values() {
+        return this.snapshot().values();
+    }
+
+    /**
+     * Returns true if this histogram contains the specified key.
+     */
+    public boolean contains(X value) {
+        return this.get(value, 0) > 0 || (this.keep_zero_entries && ids.containsKey(value));
+    }
+
+    /**
+     * Returns true if the Histogram is empty.
+     */
+    public boolean isEmpty() {
+        for (LongAdder count : counts) {
+            if (count.sum() > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the current counts into a regular Histogram
+     */
+    public Histogram<X> snapshot() {
+        Histogram<X> histogram = new Histogram<X>(this.keep_zero_entries);
+
+        List<X> registered;
+        synchronized (keys) {
+            registered = new ArrayList<X>(keys);
+        }
+
+        LongAdder[] current = counts;
+        for (int id = 0; id < registered.size(); id++) {
+            int count = (int) current[id].sum();
+            if (count != 0 || this.keep_zero_entries)
+                histogram.put(registered.get(id), count);
+        } // FOR
+        return histogram;
+    }
+
+    // ----------------------------------------------------------------------------
+    // DEBUG METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Histogram Pretty Print
+     */
+    public String toString() {
+        return this.snapshot().toString();
+    }
+
+    /**
+     * Histogram Pretty Print
+     */
+    public String toString(Integer max_chars) {
+        return this.snapshot().toString(max_chars);
+    }
+
+    /**
+     * Histogram Pretty Print
+     */
+    public String toString(Integer max_chars, Integer max_length) {
+        return this.snapshot().toString(max_chars, max_length);
+    }
+}
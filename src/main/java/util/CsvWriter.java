@@ -0,0 +1,158 @@
+package main.java.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+/**
+ * Writes comma separated rows to a file through a FileChannel. Numbers are formatted
+ * straight into the buffer, so writing a row does not allocate. Fields are not quoted,
+ * the generated data never contains commas or line breaks.
+ */
+final class CsvWriter implements Closeable {
+
+    private static final byte SEPARATOR = ',';
+    private static final byte NEWLINE = '\n';
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private boolean firstField = true;
+    private long bytesWritten;
+
+    /**
+     * Opens the file for writing, replacing any existing content. The buffer is used
+     * until the writer is closed and may be reused afterwards.
+     */
+    CsvWriter(Path path, ByteBuffer buffer) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = buffer;
+        buffer.clear();
+    }
+
+    /**
+     * Starts a new field, writing the separator if it is not the first of the row.
+     */
+    CsvWriter begin() throws IOException {
+        ensure(1);
+        if (!firstField)
+            buffer.put(SEPARATOR);
+        firstField = false;
+        return this;
+    }
+
+    CsvWriter field(long value) throws IOException {
+        return begin().append(value);
+    }
+
+    CsvWriter field(byte[] value) throws IOException {
+        return begin().append(value, 0, value.length);
+    }
+
+    /**
+     * Writes the value in hundredths as a decimal with two digits, e.g. -1005 as -10.05.
+     */
+    CsvWriter decimal(long hundredths) throws IOException {
+        begin();
+        if (hundredths < 0) {
+            append((byte) '-');
+            hundredths = -hundredths;
+        }
+        append(hundredths / 100).append((byte) '.').appendPadded(hundredths % 100, 2);
+        return this;
+    }
+
+    /**
+     * Writes a random text field with a length in [minLength, maxLength].
+     */
+    CsvWriter text(TextGenerator text, int minLength, int maxLength, SplittableRandom rng)
+            throws IOException {
+        begin();
+        ensure(maxLength);
+        text.fill(buffer, minLength, maxLength, rng);
+        return this;
+    }
+
+    CsvWriter append(byte value) throws IOException {
+        ensure(1);
+        buffer.put(value);
+        return this;
+    }
+
+    CsvWriter append(byte[] value, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensure(1);
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(value, offset, n);
+            offset += n;
+            length -= n;
+        }
+        return this;
+    }
+
+    CsvWriter append(long value) throws IOException {
+        boolean negative = value < 0;
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        if (negative)
+            digits[--start] = '-';
+
+        return append(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes the non-negative value with leading zeros up to the given width.
+     */
+    CsvWriter appendPadded(long value, int width) throws IOException {
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        while (digits.length - start < width && start > 0)
+            digits[--start] = '0';
+
+        return append(digits, start, digits.length - start);
+    }
+
+    void endRow() throws IOException {
+        append(NEWLINE);
+        firstField = true;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten + buffer.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
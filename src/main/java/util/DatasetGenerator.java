@@ -0,0 +1,263 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates the initial dataset the random parameters are drawn against: the region and
+ * nation tables, and the supplier and customer tables scaled by the number of warehouses.
+ * <p>
+ * Every table is written as CSV to its own directory. Region and nation are small and
+ * written as a single file; supplier and customer are partitioned by warehouse, and every
+ * warehouse is generated by its own fork-join task into its own part file. A warehouse
+ * draws all its values from its own random stream (see RandomStreams.forStream), so the
+ * output only depends on the master seed, whatever the number of threads.
+ * <p>
+ * The rows are formatted straight into a direct buffer per thread and written out
+ * through a FileChannel, see CsvWriter.
+ */
+public final class DatasetGenerator {
+
+    public static final int DISTRICTS_PER_WAREHOUSE = 10;
+    public static final int CUSTOMERS_PER_DISTRICT = 3000;
+    public static final int SUPPLIERS_PER_WAREHOUSE = 1000;
+
+    private static final int BUFFER_SIZE = 4 << 20;
+
+    /**
+     * Warehouse w uses stream STREAM_OFFSET + w, the text pool and the small tables the
+     * streams just below it. They are far away from the streams handed out to threads.
+     */
+    private static final long STREAM_OFFSET = 1L << 40;
+
+    /**
+     * The syllables of TPC-C customer last names
+     */
+    private static final byte[][] SYLLABLES = bytes("BAR", "OUGHT", "ABLE", "PRI", "PRES",
+            "ESE", "ANTI", "CALLY", "ATION", "EING");
+
+    private static final byte[] SUPPLIER_PREFIX = bytes("Supplier#")[0];
+    private static final byte[] MIDDLE_NAME = bytes("OE")[0];
+
+    private final String distributionType;
+    private final int warehouses;
+    private final ForkJoinPool pool;
+    private final TextGenerator text;
+
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    public DatasetGenerator(String distributionType, int warehouses) {
+        this(distributionType, warehouses, ForkJoinPool.commonPool());
+    }
+
+    public DatasetGenerator(String distributionType, int warehouses, ForkJoinPool pool) {
+        if (warehouses <= 0)
+            throw new IllegalArgumentException("The dataset needs at least one warehouse");
+
+        this.distributionType = distributionType;
+        this.warehouses = warehouses;
+        this.pool = pool;
+        this.text = new TextGenerator(RandomStreams.forStream(STREAM_OFFSET - 1));
+    }
+
+    /**
+     * Generates all tables into the directory and returns the number of bytes written.
+     */
+    public long generate(Path directory) throws IOException {
+        Files.createDirectories(directory.resolve("supplier"));
+        Files.createDirectories(directory.resolve("customer"));
+
+        long bytes = writeRegions(directory.resolve("region.csv"))
+                + writeNations(directory.resolve("nation.csv"));
+
+        List<WarehouseTask> tasks = new ArrayList<>(warehouses);
+        for (int w = 1; w <= warehouses; w++)
+            tasks.add(new WarehouseTask(directory, w));
+
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        } catch (RuntimeException e) {
+            // A task that failed on another thread may be rethrown wrapped once more,
+            // so look for the IOException along the whole cause chain
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+            }
+            throw e;
+        }
+
+        for (WarehouseTask task : tasks)
+            bytes += task.bytesWritten;
+        return bytes;
+    }
+
+    /**
+     * The number of regions in the dataset, which bounds the nations as well
+     */
+    public int getRegionCount() {
+        return Math.min(warehouses, RandomParameters.getRegionCount());
+    }
+
+    private long writeRegions(Path path) throws IOException {
+        SplittableRandom rng = RandomStreams.forStream(STREAM_OFFSET - 2);
+        CsvWriter out = new CsvWriter(path, buffers.get());
+        try {
+            for (int regionkey = 0; regionkey < getRegionCount(); regionkey++) {
+                out.field(regionkey).field(RandomParameters.getRegionNameBytes(regionkey))
+                        .text(text, 31, 115, rng);
+                out.endRow();
+            }
+        } finally {
+            out.close();
+        }
+        return out.getBytesWritten();
+    }
+
+    private long writeNations(Path path) throws IOException {
+        SplittableRandom rng = RandomStreams.forStream(STREAM_OFFSET - 3);
+        CsvWriter out = new CsvWriter(path, buffers.get());
+        try {
+            for (int regionkey = 0; regionkey < getRegionCount(); regionkey++) {
+                for (int nationkey : RandomParameters.getNationKeys(regionkey)) {
+                    out.field(nationkey).field(RandomParameters.getNationNameBytes(nationkey))
+                            .field(regionkey).text(text, 31, 114, rng);
+                    out.endRow();
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return out.getBytesWritten();
+    }
+
+    /**
+     * Generates the suppliers and customers of one warehouse.
+     */
+    private final class WarehouseTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final int warehouse;
+        private long bytesWritten;
+
+        WarehouseTask(Path directory, int warehouse) {
+            this.directory = directory;
+            this.warehouse = warehouse;
+        }
+
+        @Override
+        protected void compute() {
+            SplittableRandom rng = RandomStreams.forStream(STREAM_OFFSET + warehouse);
+            RandomParameters random = new RandomParameters(distributionType, warehouses, rng.nextLong());
+            String part = String.format("part-%05d.csv", warehouse);
+
+            try {
+                bytesWritten += writeSuppliers(directory.resolve("supplier").resolve(part), random, rng);
+                bytesWritten += writeCustomers(directory.resolve("customer").resolve(part), random, rng);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long writeSuppliers(Path path, RandomParameters random, SplittableRandom rng) throws IOException {
+            int[] nationkeys = new int[SUPPLIERS_PER_WAREHOUSE];
+            random.fillNationKeys(nationkeys, 0, nationkeys.length, rng);
+
+            long firstKey = (long) (warehouse - 1) * SUPPLIERS_PER_WAREHOUSE + 1;
+            CsvWriter out = new CsvWriter(path, buffers.get());
+            try {
+                for (int i = 0; i < SUPPLIERS_PER_WAREHOUSE; i++) {
+                    long suppkey = firstKey + i;
+                    out.field(suppkey);
+                    out.begin().append(SUPPLIER_PREFIX, 0, SUPPLIER_PREFIX.length).appendPadded(suppkey, 9);
+                    out.text(text, 10, 40, rng).field(nationkeys[i]);
+                    phone(out, nationkeys[i], rng);
+                    out.decimal(-99999 + rng.nextInt(1099999)).text(text, 25, 100, rng);
+                    out.endRow();
+                }
+            } finally {
+                out.close();
+            }
+            return out.getBytesWritten();
+        }
+
+        private long writeCustomers(Path path, RandomParameters random, SplittableRandom rng) throws IOException {
+            int[] nationkeys = new int[CUSTOMERS_PER_DISTRICT];
+            RandomParameters.NURandDistribution lastNames = new RandomParameters.NURandDistribution(1000, 255,
+                    rng.nextInt(256));
+
+            CsvWriter out = new CsvWriter(path, buffers.get());
+            try {
+                for (int district = 1; district <= DISTRICTS_PER_WAREHOUSE; district++) {
+                    random.fillNationKeys(nationkeys, 0, nationkeys.length, rng);
+
+                    for (int customer = 1; customer <= CUSTOMERS_PER_DISTRICT; customer++) {
+                        out.field(warehouse).field(district).field(customer);
+                        out.text(text, 8, 16, rng).field(MIDDLE_NAME);
+
+                        // As in TPC-C, the first thousand customers cover every last name
+                        lastName(out, customer <= 1000 ? customer - 1 : lastNames.nextInt(rng));
+
+                        out.text(text, 10, 20, rng).text(text, 10, 20, rng).field(nationkeys[customer - 1]);
+                        phone(out, nationkeys[customer - 1], rng);
+                        out.decimal(-1000).text(text, 300, 500, rng);
+                        out.endRow();
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            return out.getBytesWritten();
+        }
+    }
+
+    /**
+     * Writes a TPC-H style phone number, CC-ddd-ddd-dddd, where the country code is
+     * derived from the nationkey.
+     */
+    private static void phone(CsvWriter out, int nationkey, SplittableRandom rng) throws IOException {
+        out.begin().append(nationkey + 10)
+                .append((byte) '-').append(100 + rng.nextInt(900))
+                .append((byte) '-').append(100 + rng.nextInt(900))
+                .append((byte) '-').append(1000 + rng.nextInt(9000));
+    }
+
+    /**
+     * Writes the TPC-C last name of the number in [0, 999], made of three syllables.
+     */
+    private static void lastName(CsvWriter out, int number) throws IOException {
+        out.begin();
+        for (int divisor = 100; divisor > 0; divisor /= 10) {
+            byte[] syllable = SYLLABLES[number / divisor % 10];
+            out.append(syllable, 0, syllable.length);
+        }
+    }
+
+    private static byte[][] bytes(String... values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++)
+            bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        return bytes;
+    }
+}
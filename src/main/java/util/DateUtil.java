@@ -0,0 +1,222 @@
+package main.java.util;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.SplittableRandom;
+
+/**
+ * Date arithmetic on epoch days (days since 1970-01-01), without allocating Date or
+ * Calendar objects.
+ * <p>
+ * Dates are converted to and from the proleptic Gregorian calendar with month offset
+ * tables. The timestamps are the local midnight of a date in the default time zone, like
+ * the ones produced by java.sql.Timestamp and Calendar, and are looked up in a table that
+ * is computed once for the years MIN_YEAR to MAX_YEAR. Where a daylight saving change
+ * makes the local midnight occur twice, Calendar and Timestamp take the later one, and so
+ * does the table. Adding months to a timestamp only takes the fast path for days whose
+ * midnight occurs exactly once; dates outside the table range, days that skip midnight
+ * and days that repeat it are computed with Calendar.
+ */
+public final class DateUtil {
+
+    public static final int MIN_YEAR = 1990;
+    public static final int MAX_YEAR = 2030;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * The number of days before the first day of every month, and the length of every
+     * month, for normal [0] and leap [1] years
+     */
+    private static final int[][] MONTH_START = {
+            {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334, 365},
+            {0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335, 366}
+    };
+    private static final int[][] MONTH_LENGTH = {
+            {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31},
+            {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31}
+    };
+
+    /**
+     * The local midnight of every day in the table range, and whether that midnight occurs
+     * exactly once, so that addMonths can skip Calendar
+     */
+    private static final int FIRST_DAY = epochDay(MIN_YEAR, 1, 1);
+    private static final int LAST_DAY = epochDay(MAX_YEAR, 12, 31);
+    private static final long[] DAY_START_MILLIS = new long[LAST_DAY - FIRST_DAY + 1];
+    private static final boolean[] UNAMBIGUOUS_MIDNIGHT = new boolean[LAST_DAY - FIRST_DAY + 1];
+
+    static {
+        ZoneId zone = ZoneId.systemDefault();
+        for (int day = FIRST_DAY; day <= LAST_DAY; day++) {
+            LocalDateTime midnight = LocalDate.ofEpochDay(day).atStartOfDay();
+            ZonedDateTime start = midnight.atZone(zone).withLaterOffsetAtOverlap();
+            DAY_START_MILLIS[day - FIRST_DAY] = start.toInstant().toEpochMilli();
+            UNAMBIGUOUS_MIDNIGHT[day - FIRST_DAY] = start.toLocalDateTime().equals(midnight)
+                    && zone.getRules().getValidOffsets(midnight).size() == 1;
+        }
+    }
+
+    private DateUtil() {
+        // Static methods only
+    }
+
+    /**
+     * Returns the epoch day of the date. Like java.sql.Timestamp, months and days outside
+     * their normal range roll over into the next or previous month and year.
+     */
+    public static int epochDay(int year, int month, int day) {
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+
+        return daysBeforeYear(year) + MONTH_START[leap(year)][month - 1] + day - 1;
+    }
+
+    public static int year(int epochDay) {
+        return civil(epochDay) >> 9;
+    }
+
+    public static int month(int epochDay) {
+        return (civil(epochDay) >> 5) & 15;
+    }
+
+    public static int dayOfMonth(int epochDay) {
+        return civil(epochDay) & 31;
+    }
+
+    /**
+     * Adds the number of months to the date. If the day does not exist in the resulting
+     * month, the last day of that month is used, as Calendar.add does.
+     */
+    public static int addMonths(int epochDay, int months) {
+        int civil = civil(epochDay);
+        int year = civil >> 9;
+        int month = (civil >> 5) & 15;
+        int day = civil & 31;
+
+        int total = year * 12 + (month - 1) + months;
+        int newYear = Math.floorDiv(total, 12);
+        int newMonth = Math.floorMod(total, 12) + 1;
+        int newDay = Math.min(day, MONTH_LENGTH[leap(newYear)][newMonth - 1]);
+
+        return epochDay(newYear, newMonth, newDay);
+    }
+
+    /**
+     * Returns the timestamp of the local midnight of the date.
+     */
+    public static long toMillis(int epochDay) {
+        if (epochDay >= FIRST_DAY && epochDay <= LAST_DAY)
+            return DAY_START_MILLIS[epochDay - FIRST_DAY];
+
+        return LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault())
+                .withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+    }
+
+    /**
+     * Adds the number of months to a timestamp, with the same result as Calendar.add.
+     * Timestamps at the start of a day in the table range take the fast path, unless the
+     * day or the result day skips or repeats its midnight.
+     */
+    public static long addMonths(long millis, int months) {
+        int epochDay = dayStartingAt(millis);
+        if (epochDay != Integer.MIN_VALUE) {
+            int result = addMonths(epochDay, months);
+            if (result >= FIRST_DAY && result <= LAST_DAY && UNAMBIGUOUS_MIDNIGHT[result - FIRST_DAY])
+                return DAY_START_MILLIS[result - FIRST_DAY];
+        }
+
+        // A time of day, a date we have no table entry for, or a daylight saving change
+        // at midnight
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(new Date(millis));
+        cal.add(Calendar.MONTH, months);
+        return cal.getTime().getTime();
+    }
+
+    /**
+     * Returns a random date in [lo, hi] such that the date plus the given number of
+     * months does not go past hi, as used for the date ranges of TPC-H query parameters.
+     * If the range is shorter than that, lo is returned.
+     */
+    public static int randomDateBetween(int lo, int hi, int months, SplittableRandom rng) {
+        int latest = Math.max(lo, addMonths(hi, -months));
+        return lo + rng.nextInt(latest - lo + 1);
+    }
+
+    public static int randomDateBetween(int lo, int hi, int months) {
+        return randomDateBetween(lo, hi, months, RandomStreams.current());
+    }
+
+    /**
+     * Fills the array with random dates, see randomDateBetween.
+     */
+    public static void fillRandomDatesBetween(int[] out, int lo, int hi, int months, SplittableRandom rng) {
+        int bound = Math.max(lo, addMonths(hi, -months)) - lo + 1;
+        for (int i = 0; i < out.length; i++)
+            out[i] = lo + rng.nextInt(bound);
+    }
+
+    /**
+     * Adds the number of months to every date of the input.
+     */
+    public static void addMonths(int[] epochDays, int months, int[] out) {
+        for (int i = 0; i < epochDays.length; i++)
+            out[i] = addMonths(epochDays[i], months);
+    }
+
+    /**
+     * Converts every date of the input to the timestamp of its local midnight.
+     */
+    public static void toMillis(int[] epochDays, long[] out) {
+        for (int i = 0; i < epochDays.length; i++)
+            out[i] = toMillis(epochDays[i]);
+    }
+
+    /**
+     * Returns the epoch day that starts exactly at the given timestamp, if that day is in
+     * the table and has an unambiguous midnight, or Integer.MIN_VALUE otherwise.
+     */
+    private static int dayStartingAt(long millis) {
+        // The time zone offset is less than a day, so the day is at most one off
+        int index = (int) Math.floorDiv(millis - DAY_START_MILLIS[0], MILLIS_PER_DAY);
+        for (int i = Math.max(0, index - 1); i <= Math.min(DAY_START_MILLIS.length - 1, index + 1); i++) {
+            if (DAY_START_MILLIS[i] == millis && UNAMBIGUOUS_MIDNIGHT[i])
+                return FIRST_DAY + i;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns the date packed as (year << 9) | (month << 5) | day, using the algorithm of
+     * H. Hinnant for converting days to a civil date.
+     */
+    private static int civil(int epochDay) {
+        long z = epochDay + 719468L;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153; // March = 0
+
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        return (year << 9) | (month << 5) | day;
+    }
+
+    private static int daysBeforeYear(int year) {
+        int y = year - 1;
+        int leapDays = Math.floorDiv(y, 4) - Math.floorDiv(y, 100) + Math.floorDiv(y, 400);
+        return 365 * (year - 1970) + leapDays - 477; // 477 leap days before 1970
+    }
+
+    private static int leap(int year) {
+        return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 1 : 0;
+    }
+}
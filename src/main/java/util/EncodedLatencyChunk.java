@@ -0,0 +1,179 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores the samples of a chunk as a compact byte stream. Every sample is encoded as
+ * <pre>
+ *   header          1 byte: bits 0-4 the transaction type (31 = escaped),
+ *                           bit 5 worker id changed, bit 6 phase id changed
+ *   [transType]     varint, only if the type is escaped
+ *   [workerId]      varint, only if it differs from the previous sample
+ *   [phaseId]       varint, only if it differs from the previous sample
+ *   start offset    zig-zag varint, from the previous sample
+ *   latency         varint
+ *   queue time      zig-zag varint, the response time minus the latency
+ * </pre>
+ * With microsecond times a sample typically takes 5-6 bytes. The worker and phase ids
+ * are relative to the previous sample of the same chunk, so every chunk can be decoded
+ * on its own.
+ */
+final class EncodedLatencyChunk extends LatencyChunk {
+
+    /**
+     * The upper bound of the encoded size of a single sample
+     */
+    static final int MAX_SAMPLE_BYTES = 1 + 6 * 5;
+
+    private static final int TYPE_MASK = 0x1F;
+    private static final int TYPE_ESCAPE = 0x1F;
+    private static final int WORKER_CHANGED = 0x20;
+    private static final int PHASE_CHANGED = 0x40;
+
+    private final byte[] bytes;
+    private int length;
+
+    private int lastWorkerId;
+    private int lastPhaseId;
+
+    EncodedLatencyChunk(int capacityBytes) {
+        assert capacityBytes >= MAX_SAMPLE_BYTES;
+        this.bytes = new byte[capacityBytes];
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * Returns the number of bytes used by the encoded samples.
+     */
+    int length() {
+        return length;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Removes all samples, so the chunk can be reused once it has been written out.
+     */
+    void clear() {
+        length = 0;
+        size = 0;
+        lastWorkerId = 0;
+        lastPhaseId = 0;
+    }
+
+    @Override
+    boolean isFull() {
+        return bytes.length - length < MAX_SAMPLE_BYTES;
+    }
+
+    @Override
+    void add(int transType, int startOffset, int latency, int response, int workerId, int phaseId) {
+        assert !isFull();
+        assert transType >= 0 && latency >= 0;
+
+        int pos = length;
+        int header = transType < TYPE_ESCAPE ? transType : TYPE_ESCAPE;
+        if (workerId != lastWorkerId)
+            header |= WORKER_CHANGED;
+        if (phaseId != lastPhaseId)
+            header |= PHASE_CHANGED;
+
+        bytes[pos++] = (byte) header;
+        if (transType >= TYPE_ESCAPE)
+            pos = putVarint(bytes, pos, transType);
+        if (workerId != lastWorkerId)
+            pos = putVarint(bytes, pos, workerId);
+        if (phaseId != lastPhaseId)
+            pos = putVarint(bytes, pos, phaseId);
+
+        pos = putVarint(bytes, pos, zigZag(startOffset));
+        pos = putVarint(bytes, pos, latency);
+        pos = putVarint(bytes, pos, zigZag(response - latency));
+
+        length = pos;
+        lastWorkerId = workerId;
+        lastPhaseId = phaseId;
+        size++;
+    }
+
+    @Override
+    Reader reader() {
+        return new Decoder(ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    /**
+     * Decodes the samples of an encoded chunk from a buffer, which can either wrap the
+     * chunk on the heap or a region of a mapped file.
+     */
+    static final class Decoder implements Reader {
+        private final ByteBuffer buffer;
+        private int lastWorkerId;
+        private int lastPhaseId;
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int next(LatencyRecord.Sample sample) {
+            int header = buffer.get() & 0xFF;
+
+            int transType = header & TYPE_MASK;
+            if (transType == TYPE_ESCAPE)
+                transType = getVarint(buffer);
+            if ((header & WORKER_CHANGED) != 0)
+                lastWorkerId = getVarint(buffer);
+            if ((header & PHASE_CHANGED) != 0)
+                lastPhaseId = getVarint(buffer);
+
+            int startOffset = unZigZag(getVarint(buffer));
+            int latency = getVarint(buffer);
+            int queueTime = unZigZag(getVarint(buffer));
+
+            sample.tranType = transType;
+            sample.latencyUs = latency;
+            sample.responseUs = latency + queueTime;
+            sample.workerId = lastWorkerId;
+            sample.phaseId = lastPhaseId;
+
+            return startOffset;
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the value as an unsigned varint, 7 bits at a time, and returns the new position.
+     */
+    private static int putVarint(byte[] bytes, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
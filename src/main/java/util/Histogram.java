@@ -24,11 +24,19 @@ public class Histogram<X> {
     private transient Map<Object, String> debug_names;
 
     /**
-     * The Min counts are the values that have the greatest number of
-     * occurrences in the histogram
+     * The workload class of every key, determined once when the key is first seen
      */
-    private int tpcc_max_count = 0;
-    private int tpch_max_count = 0;
+    private final Map<X, WorkloadClass> key_classes = new HashMap<X, WorkloadClass>();
+
+    /**
+     * The Max counts are the greatest number of occurrences of a single value in each
+     * workload class, and the totals are the sum of all occurrences in each class.
+     * Both are maintained as values are added. A max count only has to be recalculated
+     * when the count of the value that holds it goes down.
+     */
+    private final int[] class_max_count = new int[WorkloadClass.values().length];
+    private final long[] class_total_count = new long[WorkloadClass.values().length];
+    private final boolean[] class_max_dirty = new boolean[WorkloadClass.values().length];
 
     /**
      * A switchable flag that determines whether non-zero entries are kept or removed
@@ -73,11 +81,15 @@ public class Histogram<X> {
         if (value == null) return;
         this.num_samples += count;
 
+        int cls = this.classOf(value).ordinal();
+        this.class_total_count[cls] += count;
+
         // If we already have this value in our histogram, then add the new count
         // to its existing total
-        if (this.histogram.containsKey(value)) {
-            count += this.histogram.get(value);
-        }
+        Integer orig = this.histogram.get(value);
+        int prev = (orig == null ? 0 : orig);
+        count += prev;
+
         assert (count >= 0) : "Invalid negative count for key '" + value + "' [count=" + count + "]";
         // If the new count is zero, then completely remove it if we're not allowed to have zero entries
         if (count == 0 && !this.keep_zero_entries) {
@@ -85,43 +97,69 @@ public class Histogram<X> {
         } else {
             this.histogram.put(value, count);
         }
-        this.dirty = true;
+
+        // A growing count can only raise the max count of its class, but if the value
+        // that held the max count shrinks, the max has to be found again
+        if (count > this.class_max_count[cls]) {
+            this.class_max_count[cls] = count;
+        } else if (count < prev && prev == this.class_max_count[cls]) {
+            this.class_max_dirty[cls] = true;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Returns the workload class of the key, classifying it the first time it is seen
+     */
+    private WorkloadClass classOf(X value) {
+        WorkloadClass cls = this.key_classes.get(value);
+        if (cls == null) {
+            cls = WorkloadClass.of(value);
+            this.key_classes.put(value, cls);
+        }
+        return cls;
     }
 
     /**
-     * Recalculate the max count value sets.
-     * Since this is expensive, this should only be done whenever that information is needed
+     * Recalculate the max count of the workload classes whose max may have gone down.
+     * This only scans the histogram after the count of a max value was decreased.
      */
-    @SuppressWarnings("unchecked")
     private synchronized void calculateInternalValues() {
         if (!this.dirty) return;
 
-        // New Min/Max Counts
-        // The reason we have to loop through and check every time is that our
-        // value may be the current max count and thus it may or may not still
-        // be after the count is changed.
-        tpcc_max_count = 0;
-        tpch_max_count = 0;
+        for (WorkloadClass cls : WorkloadClass.values()) {
+            if (this.class_max_dirty[cls.ordinal()])
+                this.class_max_count[cls.ordinal()] = 0;
+        }
 
         for (Entry<X, Integer> e : this.histogram.entrySet()) {
-            X key = e.getKey();
+            int cls = this.classOf(e.getKey()).ordinal();
             int cnt = e.getValue();
 
-            if (key.toString().startsWith("Q")){
-                // The key is likely referring to a query; not the most robust check
-                if (cnt > tpch_max_count) {
-                    tpch_max_count = cnt;
-                }
-            } else {
-                // The key is likely referring to a TPCC transaction
-                if (cnt > tpcc_max_count) {
-                    tpcc_max_count = cnt;
-                }
+            if (this.class_max_dirty[cls] && cnt > this.class_max_count[cls]) {
+                this.class_max_count[cls] = cnt;
             }
         } // FOR
+
+        Arrays.fill(this.class_max_dirty, false);
         this.dirty = false;
     }
 
+    /**
+     * Returns the greatest number of occurrences of a single value in the workload class
+     */
+    public synchronized int getMaxCount(WorkloadClass cls) {
+        this.calculateInternalValues();
+        return this.class_max_count[cls.ordinal()];
+    }
+
+    /**
+     * Returns the total number of occurrences of all values in the workload class
+     */
+    public synchronized long getTotalCount(WorkloadClass cls) {
+        return this.class_total_count[cls.ordinal()];
+    }
+
     /**
      * Returns true if the Histogram is empty.
      */
@@ -251,7 +289,7 @@ public class Histogram<X> {
         String f = "%-" + max_length + "s [%" + max_ctr_length + "d] ";
         boolean first = true;
         boolean has_labels = this.hasDebugLabels();
-        for (Object key : this.histogram.keySet()) {
+        for (X key : this.histogram.keySet()) {
             if (!first) s.append("\n");
             String str = null;
             if (has_labels) str = this.debug_names.get(key);
@@ -259,7 +297,7 @@ public class Histogram<X> {
             int value_str_len = str.length();
             if (value_str_len > max_length) str = str.substring(0, max_length - 3) + "...";
 
-            int max_count = key.toString().startsWith("Q") ? tpch_max_count : tpcc_max_count;
+            int max_count = this.class_max_count[this.classOf(key).ordinal()];
             int cnt = (key != null ? this.histogram.get(key) : 0);
             int chars = (int) ((cnt / (double) max_count) * max_chars);
             s.append(String.format(f, str, cnt));
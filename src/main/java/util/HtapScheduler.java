@@ -0,0 +1,255 @@
+package main.java.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a hybrid workload as independent lanes, so that long analytical queries do not
+ * hold up short transactions behind them in a single queue.
+ * <p>
+ * Every lane has its own schedule of phases (and with them its rates, arrival models and
+ * mixes), its own work queue, its own worker pool and its own producer thread. Lanes
+ * only share the machine. OLTP lanes can be given priority with the OLAP defer
+ * threshold: OLAP workers do not start new queries while any OLTP lane has more than
+ * that many transactions queued. This only changes when queries start; whether it
+ * protects the transaction latencies depends on how much the lanes contend for the
+ * system under test. With the simulated service times of the workers, which use no CPU,
+ * the lanes do not contend at all. (Java thread priorities are not used for this, since
+ * HotSpot on Linux ignores them by default.)
+ * <p>
+ * When the producers are done, the workers get some time to finish what is queued
+ * before they are stopped. After a run, report() gives the throughput, drops and
+ * latencies of every lane, and how many procedures were still queued or running when
+ * it stopped.
+ */
+public class HtapScheduler {
+
+    /**
+     * The configuration of one lane, changed with the fluent setters before the run.
+     */
+    public static final class Lane {
+        private final WorkloadClass workloadClass;
+        private final List<Phase> phases;
+        private final int workers;
+
+        private int queueCapacity = Workload.RATE_QUEUE_LIMIT;
+        private long serviceTimeUs = Worker.DEFAULT_SERVICE_TIME_US;
+        private Workload.OverloadPolicy overloadPolicy = Workload.OverloadPolicy.DROP_OLDEST;
+        private WaitStrategy.Type waitStrategy = WaitStrategy.Type.BACKOFF;
+        private WorkerPool.ThreadMode threadMode = WorkerPool.ThreadMode.PLATFORM;
+
+        // Set up by the run
+        private RingBufferQueue<Workload.SubmittedProcedure> queue;
+        private Workload workload;
+        private WorkerPool pool;
+        private long elapsedNs;
+
+        public Lane(WorkloadClass workloadClass, List<Phase> phases, int workers) {
+            if (phases.isEmpty())
+                throw new IllegalArgumentException("A lane needs at least one phase");
+            if (workers <= 0)
+                throw new IllegalArgumentException("A lane needs at least one worker: " + workers);
+
+            this.workloadClass = workloadClass;
+            this.phases = new ArrayList<>(phases);
+            this.workers = workers;
+        }
+
+        public Lane queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Lane serviceTimeUs(long serviceTimeUs) {
+            this.serviceTimeUs = serviceTimeUs;
+            return this;
+        }
+
+        public Lane overloadPolicy(Workload.OverloadPolicy overloadPolicy) {
+            this.overloadPolicy = overloadPolicy;
+            return this;
+        }
+
+        public Lane waitStrategy(WaitStrategy.Type waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * Runs the workers on platform or virtual threads. VIRTUAL needs a JVM that
+         * supports it, see WorkerPool.isVirtualThreadSupported.
+         */
+        public Lane threadMode(WorkerPool.ThreadMode threadMode) {
+            this.threadMode = threadMode;
+            return this;
+        }
+
+        public WorkloadClass getWorkloadClass() {
+            return workloadClass;
+        }
+
+        public Workload getWorkload() {
+            return workload;
+        }
+
+        public WorkerPool getWorkerPool() {
+            return pool;
+        }
+
+        /**
+         * Returns the number of completed procedures per second of the last run.
+         */
+        public double getThroughput() {
+            return elapsedNs == 0 ? 0 : pool.getCompletedCount() * 1000000000.0 / elapsedNs;
+        }
+
+        private String name(int index) {
+            return workloadClass.name().toLowerCase() + index;
+        }
+    }
+
+    private final List<Lane> lanes = new ArrayList<>();
+    private int olapDeferThreshold = -1;
+    private long drainTimeoutMs = 10000;
+
+    public HtapScheduler addLane(Lane lane) {
+        lanes.add(lane);
+        return this;
+    }
+
+    public List<Lane> getLanes() {
+        return Collections.unmodifiableList(lanes);
+    }
+
+    /**
+     * Makes OLAP workers wait while any OLTP lane has more than the given number of
+     * transactions queued. A negative threshold (the default) turns this off.
+     */
+    public void setOlapDeferThreshold(int olapDeferThreshold) {
+        this.olapDeferThreshold = olapDeferThreshold;
+    }
+
+    /**
+     * Sets how long the workers may keep working off the queues once all schedules are
+     * done. Whatever is left after that is reported as unfinished.
+     */
+    public void setDrainTimeoutMs(long drainTimeoutMs) {
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    /**
+     * Runs all lanes at the same time and returns when the longest schedule is done and
+     * the queues have been drained, or the drain timeout has passed.
+     */
+    public void run() throws InterruptedException {
+        if (lanes.isEmpty())
+            throw new IllegalStateException("There are no lanes to run");
+
+        List<RingBufferQueue<Workload.SubmittedProcedure>> oltpQueues = new ArrayList<>();
+        for (Lane lane : lanes) {
+            lane.queue = new RingBufferQueue<>(lane.queueCapacity);
+            if (lane.workloadClass == WorkloadClass.OLTP)
+                oltpQueues.add(lane.queue);
+        }
+
+        for (int i = 0; i < lanes.size(); i++) {
+            Lane lane = lanes.get(i);
+
+            // The rate only sets how often the workers log
+            int logRate = Math.max(1, (int) lane.phases.get(0).getRate(0));
+            lane.pool = new WorkerPool(lane.queue, logRate, lane.workers, lane.threadMode);
+            lane.pool.setThreadNamePrefix(lane.name(i) + "-worker-");
+            lane.pool.setServiceTimeUs(lane.serviceTimeUs);
+            lane.pool.setWaitStrategy(lane.waitStrategy);
+            if (lane.workloadClass == WorkloadClass.OLAP && olapDeferThreshold >= 0 && !oltpQueues.isEmpty())
+                lane.pool.setAdmission(() -> isOltpCaughtUp(oltpQueues));
+
+            lane.workload = new Workload(lane.queue, lane.phases);
+            lane.workload.setOverloadPolicy(lane.overloadPolicy);
+            lane.workload.setWaitStrategy(lane.pool.getWaitStrategy());
+        }
+
+        // Start all workers before the first arrival of any lane
+        for (Lane lane : lanes)
+            lane.pool.start();
+
+        List<Thread> producers = new ArrayList<>(lanes.size());
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i = 0; i < lanes.size(); i++) {
+            Lane lane = lanes.get(i);
+            Thread producer = new Thread(() -> {
+                long start = System.nanoTime();
+                try {
+                    lane.workload.executeWorkload();
+                } catch (Throwable t) {
+                    failures.add(t);
+                } finally {
+                    lane.elapsedNs = System.nanoTime() - start;
+                }
+            }, lane.name(i) + "-producer");
+            producers.add(producer);
+            producer.start();
+        }
+
+        try {
+            for (Thread producer : producers)
+                producer.join();
+            awaitDrained();
+        } finally {
+            for (Lane lane : lanes)
+                lane.pool.stop();
+        }
+
+        if (!failures.isEmpty())
+            throw new RuntimeException("A lane failed to run its workload", failures.get(0));
+    }
+
+    /**
+     * Returns the throughput, drops and latencies of every lane of the last run.
+     */
+    public String report() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < lanes.size(); i++) {
+            Lane lane = lanes.get(i);
+            if (lane.pool == null)
+                continue;
+
+            if (s.length() > 0)
+                s.append("\n\n");
+            // Procedures that were neither completed nor dropped were still queued, or
+            // interrupted while running, when the workers were stopped
+            long submitted = lane.workload.getSubmittedCount();
+            long completed = lane.pool.getCompletedCount();
+            long dropped = lane.workload.getDroppedCount();
+            s.append(String.format("== Lane %s (%s): %d workers, %d submitted, %d completed (%.1f per second), "
+                            + "%d dropped, %d unfinished",
+                    lane.name(i), lane.workloadClass, lane.workers, submitted, completed,
+                    lane.getThroughput(), dropped, submitted - completed - dropped));
+            s.append("\n").append(LatencyReport.summarize(lane.pool.getLatencyRecords()));
+            s.append("\n").append(lane.pool.getBreakdown());
+        }
+        return s.toString();
+    }
+
+    /**
+     * Waits until every procedure that was not dropped has been completed, which covers
+     * both the queues and the procedures the workers are still running.
+     */
+    private void awaitDrained() throws InterruptedException {
+        long deadline = System.nanoTime() + drainTimeoutMs * 1000000;
+        for (Lane lane : lanes) {
+            long expected = lane.workload.getSubmittedCount() - lane.workload.getDroppedCount();
+            while (lane.pool.getCompletedCount() < expected && System.nanoTime() < deadline)
+                Thread.sleep(1);
+        }
+    }
+
+    private boolean isOltpCaughtUp(List<RingBufferQueue<Workload.SubmittedProcedure>> oltpQueues) {
+        for (RingBufferQueue<Workload.SubmittedProcedure> queue : oltpQueues) {
+            if (queue.size() > olapDeferThreshold)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package main.java.util;
+
+import java.util.Arrays;
+
+/**
+ * Splits the response time of every transaction in the parts spent in the driver and in
+ * the system under test, per transaction type:
+ * <ul>
+ * <li>schedule lag: from the intended start time until the producer posted it</li>
+ * <li>queue wait: from being posted until a worker took it from the queue</li>
+ * <li>service time: the execution itself</li>
+ * <li>response time: from the intended start time until the end of the execution</li>
+ * </ul>
+ * The parts are aggregated in histograms of microseconds, so the memory needed does not
+ * depend on the number of transactions. Every worker keeps its own breakdown; they are
+ * merged for the report.
+ */
+public final class LatencyBreakdown {
+
+    /**
+     * Every worker keeps four histograms per transaction type it has executed, so they
+     * are coarser than the ones of the latency report: two significant digits and values
+     * up to ten minutes (longer times are counted as ten minutes), about 24 KB each.
+     */
+    private static final long HIGHEST_TIME_US = 10L * 60 * 1000 * 1000;
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    /**
+     * The series per transaction type, only created for the types that were recorded
+     */
+    private Series[] byType = new Series[0];
+    private final Series total = new Series();
+
+    /**
+     * Records a transaction, with all times from System.nanoTime.
+     */
+    public void record(int type, long intendedNs, long enqueueNs, long dequeueNs, long startNs, long endNs) {
+        long scheduleLagUs = Math.max(0, enqueueNs - intendedNs) / 1000;
+        long queueWaitUs = Math.max(0, dequeueNs - enqueueNs) / 1000;
+        long serviceUs = Math.max(0, endNs - startNs) / 1000;
+        long responseUs = Math.max(0, endNs - intendedNs) / 1000;
+
+        total.record(scheduleLagUs, queueWaitUs, serviceUs, responseUs);
+        series(type).record(scheduleLagUs, queueWaitUs, serviceUs, responseUs);
+    }
+
+    /**
+     * Adds all transactions of the other breakdown to this one.
+     */
+    public void add(LatencyBreakdown other) {
+        total.add(other.total);
+        for (int type = 0; type < other.byType.length; type++) {
+            if (other.byType[type] != null)
+                series(type).add(other.byType[type]);
+        }
+    }
+
+    public static LatencyBreakdown merge(Iterable<LatencyBreakdown> breakdowns) {
+        LatencyBreakdown merged = new LatencyBreakdown();
+        for (LatencyBreakdown breakdown : breakdowns)
+            merged.add(breakdown);
+        return merged;
+    }
+
+    public long getTotalCount() {
+        return total.response.getTotalCount();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("All transactions:");
+        total.format(s);
+
+        for (int type = 0; type < byType.length; type++) {
+            if (byType[type] == null || byType[type].response.isEmpty())
+                continue;
+
+            s.append("\nTransaction type ").append(type).append(":");
+            byType[type].format(s);
+        }
+        return s.toString();
+    }
+
+    private Series series(int type) {
+        if (type >= byType.length)
+            byType = Arrays.copyOf(byType, type + 1);
+        if (byType[type] == null)
+            byType[type] = new Series();
+        return byType[type];
+    }
+
+    private static final class Series {
+        final LatencyHistogram scheduleLag = new LatencyHistogram(HIGHEST_TIME_US, SIGNIFICANT_DIGITS);
+        final LatencyHistogram queueWait = new LatencyHistogram(HIGHEST_TIME_US, SIGNIFICANT_DIGITS);
+        final LatencyHistogram service = new LatencyHistogram(HIGHEST_TIME_US, SIGNIFICANT_DIGITS);
+        final LatencyHistogram response = new LatencyHistogram(HIGHEST_TIME_US, SIGNIFICANT_DIGITS);
+
+        void record(long scheduleLagUs, long queueWaitUs, long serviceUs, long responseUs) {
+            scheduleLag.record(scheduleLagUs);
+            queueWait.record(queueWaitUs);
+            service.record(serviceUs);
+            response.record(responseUs);
+        }
+
+        void add(Series other) {
+            scheduleLag.add(other.scheduleLag);
+            queueWait.add(other.queueWait);
+            service.add(other.service);
+            response.add(other.response);
+        }
+
+        void format(StringBuilder s) {
+            s.append("\n  ").append(LatencyReport.formatLine("Schedule lag", scheduleLag));
+            s.append("\n  ").append(LatencyReport.formatLine("Queue wait", queueWait));
+            s.append("\n  ").append(LatencyReport.formatLine("Service time", service));
+            s.append("\n  ").append(LatencyReport.formatLine("Response time", response));
+
+            // The share of the response time spent before execution, which grows as
+            // the driver saturates
+            if (!response.isEmpty() && response.getMean() > 0) {
+                double driver = (scheduleLag.getMean() + queueWait.getMean()) / response.getMean();
+                s.append(String.format("%n  %.1f%% of the mean response time was spent in the driver", 100 * driver));
+            }
+        }
+    }
+}
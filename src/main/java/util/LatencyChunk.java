@@ -0,0 +1,41 @@
+package main.java.util;
+
+/**
+ * A chunk of samples in a LatencyRecord. Start times are stored as offsets from the
+ * previous sample; the record keeps the running total that turns them into absolute
+ * times again.
+ */
+abstract class LatencyChunk {
+
+    /**
+     * The number of samples stored in the chunk.
+     */
+    int size;
+
+    /**
+     * Returns true if the chunk can not hold another sample.
+     */
+    abstract boolean isFull();
+
+    /**
+     * Appends a sample to the chunk. All times are in microseconds.
+     */
+    abstract void add(int transType, int startOffset, int latency, int response, int workerId, int phaseId);
+
+    /**
+     * Returns a reader positioned before the first sample of the chunk.
+     */
+    abstract Reader reader();
+
+    /**
+     * Reads the samples of a chunk in the order they were added.
+     */
+    interface Reader {
+
+        /**
+         * Fills in the next sample, except for its start time, and returns the offset
+         * of its start time from the previous sample.
+         */
+        int next(LatencyRecord.Sample sample);
+    }
+}
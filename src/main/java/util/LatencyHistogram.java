@@ -0,0 +1,197 @@
+package main.java.util;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of non-negative long values, in the style of HdrHistogram.
+ * <p>
+ * Values are counted in buckets whose width doubles with every power of two, while every
+ * bucket is split in enough linear sub-buckets to keep the given number of significant
+ * decimal digits. Recording a value is a couple of shifts and an array increment, and
+ * the memory use only depends on the value range and precision, not on the number of
+ * recorded values. Histograms with the same configuration can be merged without loss.
+ * <p>
+ * A histogram is not thread-safe; give every writer its own histogram and merge them.
+ */
+public class LatencyHistogram {
+
+    private final long highestTrackableValue;
+    private final int significantDigits;
+
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+
+    private final long[] counts;
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * @param highestTrackableValue the largest value that can be recorded; larger values
+     *                              are counted as this value
+     * @param significantDigits     the number of significant decimal digits to keep (1-5)
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5)
+            throw new IllegalArgumentException("The number of significant digits must be between 1 and 5: " + significantDigits);
+        if (highestTrackableValue < 2)
+            throw new IllegalArgumentException("The highest trackable value must be at least 2: " + highestTrackableValue);
+
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        // Enough linear sub-buckets to tell apart values with the given precision
+        long largestSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(largestSingleUnitResolution - 1);
+        int subBucketCount = 1 << subBucketCountMagnitude;
+
+        this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        this.subBucketHalfCount = subBucketCount / 2;
+        this.subBucketMask = subBucketCount - 1;
+        this.leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        // Add buckets, each twice as wide as the previous, until the highest value fits
+        int bucketCount = 1;
+        long smallestUntrackableValue = subBucketCount;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+
+        this.counts = new long[(bucketCount + 1) * subBucketHalfCount];
+    }
+
+    /**
+     * Creates an empty histogram with the same configuration as this one.
+     */
+    public LatencyHistogram copyConfiguration() {
+        return new LatencyHistogram(highestTrackableValue, significantDigits);
+    }
+
+    /**
+     * Records a single occurrence of the value.
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records the value count times.
+     */
+    public void record(long value, long count) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative values can not be recorded: " + value);
+
+        if (value > highestTrackableValue)
+            value = highestTrackableValue;
+
+        counts[countsIndex(value)] += count;
+        totalCount += count;
+        sum += value * count;
+
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Adds all the counts of the other histogram to this one. Both histograms must have
+     * the same configuration.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.highestTrackableValue != highestTrackableValue || other.significantDigits != significantDigits)
+            throw new IllegalArgumentException("Can only add histograms with the same configuration");
+
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public boolean isEmpty() {
+        return totalCount == 0;
+    }
+
+    /**
+     * Returns the exact mean of the recorded values.
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0.0 : sum / (double) totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value below which the given percentage (0-100) of the recorded values
+     * fall, within the precision of the histogram.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return 0;
+
+        double fraction = Math.min(Math.max(percentile, 0.0), 100.0) / 100.0;
+        long countAtPercentile = Math.max(1, (long) Math.ceil(fraction * totalCount));
+
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= countAtPercentile)
+                return Math.min(highestEquivalentValue(i), max);
+        }
+
+        return max;
+    }
+
+    private int countsIndex(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+
+        // The first bucket uses all its sub-buckets, the others only their upper half
+        int bucketBaseIndex = (bucketIndex + 1) << subBucketHalfCountMagnitude;
+        return bucketBaseIndex + subBucketIndex - subBucketHalfCount;
+    }
+
+    /**
+     * Returns the largest value that is counted in the given index.
+     */
+    private long highestEquivalentValue(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+
+        long lowest = (long) subBucketIndex << bucketIndex;
+        return lowest + (1L << bucketIndex) - 1;
+    }
+}
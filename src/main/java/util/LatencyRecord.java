@@ -33,93 +33,260 @@ package main.java.util;
  * limitations under the License.
  */
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- * Efficiently stores a record of (start time, latency) pairs.
+ * Efficiently stores a record of (start time, service time, response time) triplets.
  */
 public class LatencyRecord implements Iterable<LatencyRecord.Sample> {
     /**
-     * Allocate space for 500k samples at a time
+     * Allocate space for 500k samples at a time. The first chunks are smaller, so that
+     * records of short runs or of many idle workers stay small.
      */
     private static final int ALLOC_SIZE = 500000;
+    private static final int INITIAL_ALLOC_SIZE = 1024;
 
     /**
-     * Contains (start time, latency, transactionType, workerid, phaseid) pentiplets in
-     * microsecond form. The start times are "compressed" by encoding them as increments,
-     * starting from benchmarkStartNs. A 32-bit integer provides sufficient resolution for an
-     * interval of 2146 seconds, or 35 minutes.
+     * Encoded chunks are allocated in bytes, 4MB (roughly 700k samples) at a time.
      */
-    private final ArrayList<Sample[]> values = new ArrayList<Sample[]>();
-    private int nextIndex;
+    private static final int ALLOC_BYTES = 4 * 1024 * 1024;
+    private static final int INITIAL_ALLOC_BYTES = 16 * 1024;
+
+    /**
+     * A spilling record writes out its chunk every 1MB (roughly 170k samples) and then
+     * reuses it, so its heap usage does not depend on the length of the run.
+     */
+    private static final int SPILL_ALLOC_BYTES = 1024 * 1024;
+
+    /**
+     * Contains (start time, latency, response time, transactionType, workerid, phaseid)
+     * sextuplets in microsecond form. The latency is the service time of the transaction,
+     * while the response time is measured from its intended start time and thus includes
+     * any time spent queueing in the driver. The start times are compressed by encoding them
+     * as increments from the previous sample, starting from benchmarkStartNs. A 32-bit integer
+     * provides sufficient resolution for a gap of 2146 seconds, or 35 minutes, between two
+     * consecutive samples.
+     * <p>
+     * By default each chunk stores the fields in parallel primitive arrays (24 bytes per
+     * sample). An encoded record stores them as varints instead, at 5-6 bytes per sample,
+     * which is meant for long runs at high rates. Either way, recording a sample does not
+     * allocate anything apart from a new chunk once the current one is full.
+     * <p>
+     * For soak tests, a record can spill its full encoded chunks to a memory-mapped file
+     * instead of keeping them on the heap; values then only holds the chunk being filled,
+     * and the spilled chunks are read back from the file. The file outlives the driver and
+     * can be read back with open().
+     */
+    private final ArrayList<LatencyChunk> values = new ArrayList<LatencyChunk>();
+    private final boolean encoded;
+    private final LatencySpillFile spillFile;
+    private final boolean readOnly;
+    private LatencyChunk current;
+    private int size;
 
     public final long benchmarkStartNs;
     private long lastMs;
 
     public LatencyRecord(long startMs) {
+        this(startMs, false);
+    }
+
+    public LatencyRecord(long startMs, boolean encoded) {
         assert startMs > 0;
 
         this.benchmarkStartNs = startMs;
+        this.encoded = encoded;
+        this.spillFile = null;
+        this.readOnly = false;
         lastMs = startMs;
 
         allocateChunk();
     }
 
+    /**
+     * Creates an encoded record that spills its full chunks to a new file in the
+     * given directory.
+     */
+    public LatencyRecord(long startMs, Path spillDirectory) throws IOException {
+        assert startMs > 0;
+
+        this.benchmarkStartNs = startMs;
+        this.encoded = true;
+        this.spillFile = LatencySpillFile.create(spillDirectory, startMs);
+        this.readOnly = false;
+        lastMs = startMs;
+
+        current = new EncodedLatencyChunk(SPILL_ALLOC_BYTES);
+        values.add(current);
+    }
+
+    /**
+     * Creates a read-only record of the chunks stored in a spill file.
+     */
+    private LatencyRecord(LatencySpillFile file) {
+        this.benchmarkStartNs = file.getBenchmarkStart();
+        this.encoded = true;
+        this.spillFile = file;
+        this.readOnly = true;
+        lastMs = benchmarkStartNs;
+
+        size = (int) file.getSampleCount();
+    }
+
+    /**
+     * Opens the spill file of a record, for instance to post-process the samples of a
+     * previous run. The returned record can only be iterated.
+     */
+    public static LatencyRecord open(Path file) throws IOException {
+        return new LatencyRecord(LatencySpillFile.open(file));
+    }
+
     public void addLatency(int transType, long startMs, long endMs, int workerId, int phaseId) {
+        addLatency(transType, startMs, startMs, endMs, workerId, phaseId);
+    }
+
+    /**
+     * Records a transaction that was scheduled to start at intendedMs, but was only
+     * started at startMs. The service time is measured from startMs and the response
+     * time from intendedMs, which avoids coordinated omission when the driver falls behind.
+     */
+    public void addLatency(int transType, long intendedMs, long startMs, long endMs, int workerId, int phaseId) {
         assert lastMs > 0;
         assert lastMs - 500 <= startMs;
         assert endMs >= startMs;
+        assert startMs >= intendedMs;
 
-        if (nextIndex == ALLOC_SIZE)
-            allocateChunk();
+        if (readOnly)
+            throw new IllegalStateException("Can not add samples to a record that was read from a file");
 
-        Sample[] chunk = values.get(values.size() - 1);
+        LatencyChunk chunk = current;
+        if (chunk.isFull())
+            chunk = allocateChunk();
 
         long startOffsetMs = (startMs - lastMs);
-        int latencyMs = (int) (endMs - startMs);
-
-        chunk[nextIndex] = new Sample(transType, startOffsetMs, latencyMs, workerId, phaseId);
+        assert startOffsetMs <= Integer.MAX_VALUE;
 
-        ++nextIndex;
+        chunk.add(transType, (int) startOffsetMs, (int) (endMs - startMs), (int) (endMs - intendedMs), workerId, phaseId);
+        size++;
 
         lastMs += startOffsetMs;
     }
 
-    private void allocateChunk() {
-        assert (values.isEmpty() && nextIndex == 0 || nextIndex == ALLOC_SIZE);
-        values.add(new Sample[ALLOC_SIZE]);
-        nextIndex = 0;
+    private LatencyChunk allocateChunk() {
+        assert (values.isEmpty() || current.isFull());
+
+        // A spilling record writes out the chunk and then reuses it
+        if (spillFile != null) {
+            spill();
+            return current;
+        }
+
+        // Double the chunk size until we reach the allocation limit
+        if (encoded) {
+            int capacity = current == null ? INITIAL_ALLOC_BYTES
+                    : Math.min(((EncodedLatencyChunk) current).capacity() * 2, ALLOC_BYTES);
+            current = new EncodedLatencyChunk(capacity);
+        } else {
+            int capacity = current == null ? INITIAL_ALLOC_SIZE
+                    : Math.min(((PrimitiveLatencyChunk) current).capacity() * 2, ALLOC_SIZE);
+            current = new PrimitiveLatencyChunk(capacity);
+        }
+
+        values.add(current);
+        return current;
+    }
+
+    /**
+     * Writes the current chunk to the spill file and empties it for reuse.
+     */
+    private void spill() {
+        EncodedLatencyChunk chunk = (EncodedLatencyChunk) current;
+
+        try {
+            spillFile.append(chunk);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to spill latency samples to " + spillFile.getPath(), e);
+        }
+
+        chunk.clear();
+    }
+
+    /**
+     * The chunks are the spilled ones, if any, followed by the ones in memory.
+     */
+    private int chunkCount() {
+        return (spillFile == null ? 0 : spillFile.getChunkCount()) + values.size();
+    }
+
+    private LatencyChunk chunk(int index) {
+        int spilled = spillFile == null ? 0 : spillFile.getChunkCount();
+        if (index >= spilled)
+            return values.get(index - spilled);
+
+        try {
+            return spillFile.chunk(index);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read latency samples from " + spillFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Writes any buffered samples to the spill file. Does nothing if the record does
+     * not spill to disk.
+     */
+    public void flush() {
+        if (spillFile != null && !readOnly && current.size > 0)
+            spill();
+    }
+
+    /**
+     * Flushes the record and closes its spill file. The samples remain readable, both
+     * through this record and by opening the file.
+     */
+    public void close() throws IOException {
+        if (spillFile != null) {
+            flush();
+            spillFile.close();
+        }
+    }
+
+    /**
+     * Returns the file the record spills to, or null if it is kept in memory.
+     */
+    public Path getSpillFile() {
+        return spillFile == null ? null : spillFile.getPath();
     }
 
     /**
      * Returns the number of recorded samples.
      */
     public int size() {
-        // Samples stored in full chunks
-        int samples = (values.size() - 1) * ALLOC_SIZE;
+        return size;
+    }
 
-        // Samples stored in the last not full chunk
-        samples += nextIndex;
-        return samples;
+    public boolean isEncoded() {
+        return encoded;
     }
 
     /**
-     * Stores the start time and latency for a single sample. Immutable.
+     * The start time and latency for a single sample. Samples are not stored as objects;
+     * an iterator returns the same instance for every sample, so the values must be
+     * copied if they are needed after the next call to next().
      */
     public static final class Sample implements Comparable<Sample> {
-        final int tranType;
+        int tranType;
         public long startNs;
-        public final int latencyUs;
-        final int workerId;
-        final int phaseId;
-
-        Sample(int tranType, long startNs, int latencyUs, int workerId, int phaseId) {
-            this.tranType = tranType;
-            this.startNs = startNs;
-            this.latencyUs = latencyUs;
-            this.workerId = workerId;
-            this.phaseId = phaseId;
+        public int latencyUs;
+        public int responseUs;
+        int workerId;
+        int phaseId;
+
+        Sample() {
+            // Filled in by the iterator
         }
 
         @Override
@@ -137,45 +304,52 @@ public class LatencyRecord implements Iterable<LatencyRecord.Sample> {
         }
     }
 
+    /**
+     * Streams through the chunks, decoding one sample at a time.
+     */
     private final class LatencyRecordIterator implements Iterator<Sample> {
+        private final Sample sample = new Sample();
         private int chunkIndex = 0;
         private int subIndex = 0;
+        private LatencyChunk chunk;
+        private LatencyChunk.Reader reader;
         private long lastIteratorNs = benchmarkStartNs;
 
         @Override
         public boolean hasNext() {
-            if (chunkIndex < values.size() - 1) {
-                return true;
+            if (chunk == null) {
+                if (chunkIndex >= chunkCount())
+                    return false;
+                chunk = chunk(chunkIndex);
             }
 
-            assert chunkIndex == values.size() - 1;
-            if (subIndex < nextIndex) {
-                return true;
-            }
-
-            assert chunkIndex == values.size() - 1 && subIndex == nextIndex;
-            return false;
+            // Only the last chunk can be partially filled
+            return subIndex < chunk.size;
         }
 
         @Override
         public Sample next() {
-            Sample[] chunk = values.get(chunkIndex);
-            Sample s = chunk[subIndex];
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            if (reader == null)
+                reader = chunk.reader();
+
+            // The stored start time is an offset from the previous sample, so
+            // keep a running total to turn it into an absolute time.
+            lastIteratorNs += reader.next(sample);
+            sample.startNs = lastIteratorNs;
 
             // Iterate in chunk, and wrap to next one
             ++subIndex;
-            assert subIndex <= ALLOC_SIZE;
-            if (subIndex == ALLOC_SIZE) {
+            if (subIndex == chunk.size && chunk.isFull()) {
                 chunkIndex += 1;
                 subIndex = 0;
+                chunk = null;
+                reader = null;
             }
 
-            // Previously, s.benchmarkStartNs was just an offset from the previous
-            // value.  Now we make it an absolute.
-            s.startNs += lastIteratorNs;
-            lastIteratorNs = s.startNs;
-
-            return s;
+            return sample;
         }
 
         @Override
@@ -0,0 +1,170 @@
+package main.java.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summarizes the samples of one or more latency records. Service time (from the
+ * actual start of a transaction) and response time (from its intended start time)
+ * are reported side by side, since the difference between the two is the time the
+ * transaction spent waiting in the driver.
+ * <p>
+ * The samples are aggregated in log-linear histograms, overall as well as per
+ * transaction type and per phase, so the memory needed does not depend on the
+ * number of samples.
+ */
+public final class LatencyReport {
+
+    /**
+     * Track latencies up to an hour, in microseconds, with 3 significant digits
+     */
+    static final long HIGHEST_LATENCY_US = 3600L * 1000 * 1000;
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private LatencyReport() {
+        // Static methods only
+    }
+
+    public static String summarize(Iterable<LatencyRecord> records) {
+        Series total = new Series();
+        List<Series> byType = new ArrayList<>();
+        List<Series> byPhase = new ArrayList<>();
+
+        for (LatencyRecord record : records) {
+            for (LatencyRecord.Sample sample : record) {
+                total.record(sample);
+                series(byType, sample.tranType).record(sample);
+                series(byPhase, sample.phaseId).record(sample);
+            }
+        }
+
+        StringBuilder s = new StringBuilder();
+        total.format(s, "");
+
+        for (int type = 0; type < byType.size(); type++) {
+            if (byType.get(type).isEmpty())
+                continue;
+
+            s.append("\nTransaction type ").append(type).append(":");
+            byType.get(type).format(s, "  ");
+        }
+
+        // A single phase would just repeat the totals
+        if (byPhase.size() > 1) {
+            for (int phase = 0; phase < byPhase.size(); phase++) {
+                if (byPhase.get(phase).isEmpty())
+                    continue;
+
+                s.append("\nPhase ").append(phase).append(":");
+                byPhase.get(phase).format(s, "  ");
+            }
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * Summarizes the samples per window of time since the benchmark start, which shows
+     * how throughput and latency develop over a run, for instance across phases or while
+     * the driver saturates. The shards are merged by start time, so every window can be
+     * closed as soon as the first sample of a later window comes along, and only one
+     * window is kept in memory. Windows without samples are reported as well, since a
+     * gap is a stall.
+     */
+    public static String summarizeWindows(ShardedLatencyRecord record, int windowSeconds) {
+        if (windowSeconds <= 0)
+            throw new IllegalArgumentException("The window must be at least a second: " + windowSeconds);
+
+        long windowUs = windowSeconds * 1000000L;
+        long benchmarkStartUs = record.getBenchmarkStart();
+        Series window = new Series();
+        long windowIndex = 0;
+
+        StringBuilder s = new StringBuilder();
+        for (LatencyRecord.Sample sample : record) {
+            long index = Math.max(0, sample.startNs - benchmarkStartUs) / windowUs;
+            while (windowIndex < index) {
+                formatWindow(s, windowIndex++, windowSeconds, window);
+                window.reset();
+            }
+            window.record(sample);
+        }
+        if (!window.isEmpty())
+            formatWindow(s, windowIndex, windowSeconds, window);
+
+        return s.toString();
+    }
+
+    private static void formatWindow(StringBuilder s, long index, int windowSeconds, Series window) {
+        if (s.length() > 0)
+            s.append("\n");
+
+        long count = window.service.getTotalCount();
+        s.append(String.format("%6d s: %8.1f TPS", index * windowSeconds, count / (double) windowSeconds));
+        if (count > 0) {
+            s.append(String.format(", service p50=%d p99=%d, response p50=%d p99=%d (us)",
+                    window.service.getValueAtPercentile(50), window.service.getValueAtPercentile(99),
+                    window.response.getValueAtPercentile(50), window.response.getValueAtPercentile(99)));
+        }
+    }
+
+    /**
+     * Returns a new histogram with the configuration used for latencies in microseconds.
+     */
+    static LatencyHistogram newHistogram() {
+        return new LatencyHistogram(HIGHEST_LATENCY_US, SIGNIFICANT_DIGITS);
+    }
+
+    static String formatLine(String name, LatencyHistogram histogram) {
+        return formatLine(name, "us", histogram);
+    }
+
+    static String formatLine(String name, String unit, LatencyHistogram histogram) {
+        if (histogram.isEmpty())
+            return String.format("%-14s (%s): <EMPTY>", name, unit);
+
+        return String.format("%-14s (%s): count=%d, mean=%.1f, p50=%d, p95=%d, p99=%d, max=%d",
+                name, unit, histogram.getTotalCount(), histogram.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(95),
+                histogram.getValueAtPercentile(99), histogram.getMax());
+    }
+
+    /**
+     * Returns the series at the given dense index, creating it (and any missing ones
+     * before it) if needed.
+     */
+    private static Series series(List<Series> series, int index) {
+        while (series.size() <= index)
+            series.add(new Series());
+        return series.get(index);
+    }
+
+    /**
+     * The service and response time histograms of a group of samples.
+     */
+    private static final class Series {
+        final LatencyHistogram service = newHistogram();
+        final LatencyHistogram response = newHistogram();
+
+        void record(LatencyRecord.Sample sample) {
+            service.record(sample.latencyUs);
+            response.record(sample.responseUs);
+        }
+
+        boolean isEmpty() {
+            return service.isEmpty();
+        }
+
+        void reset() {
+            service.reset();
+            response.reset();
+        }
+
+        void format(StringBuilder s, String indent) {
+            if (s.length() > 0)
+                s.append("\n");
+            s.append(indent).append(formatLine("Service time", service));
+            s.append("\n").append(indent).append(formatLine("Response time", response));
+        }
+    }
+}
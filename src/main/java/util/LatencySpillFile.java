@@ -0,0 +1,249 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An append-only file of encoded latency chunks, written and read through memory-mapped
+ * segments. The file starts with a header (magic, version, benchmark start time), followed
+ * by the chunks, each prefixed by its sample count and length in bytes:
+ * <pre>
+ *   [magic][version][benchmarkStart] ([samples][length][encoded samples])* [0]
+ * </pre>
+ * A chunk never crosses a segment boundary; the rest of a segment that is too small for
+ * the next chunk is skipped, marked by a sample count of -1 if there is room for it. Since
+ * mapped regions are zero-filled, a sample count of 0 marks the end of the data.
+ * <p>
+ * Only the file offset of every chunk is kept on the heap. Just the segment that is being
+ * written is mapped for writing; a full segment is no longer referenced and is unmapped
+ * once it has been collected. Reading maps one segment at a time, when a chunk in it is
+ * first asked for, so a long soak run neither fills the heap nor the address space.
+ */
+final class LatencySpillFile {
+
+    private static final int MAGIC = 0x4C415452; // "LATR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8;
+    private static final int CHUNK_HEADER_BYTES = 4 + 4;
+    private static final int SKIP_MARKER = -1;
+
+    /**
+     * Map 64MB of the file at a time
+     */
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel; // Null when the file was opened for reading
+    private final long benchmarkStart;
+
+    /**
+     * The file offset of the header of every chunk, and the number of samples in all chunks
+     */
+    private long[] chunkOffsets = new long[64];
+    private int chunkCount;
+    private long sampleCount;
+
+    private MappedByteBuffer writeSegment;
+    private int writeSegmentIndex;
+    private MappedByteBuffer readSegment;
+    private int readSegmentIndex = -1;
+
+    private LatencySpillFile(Path path, FileChannel channel, long benchmarkStart) {
+        this.path = path;
+        this.channel = channel;
+        this.benchmarkStart = benchmarkStart;
+    }
+
+    /**
+     * Creates a new spill file in the given directory.
+     */
+    static LatencySpillFile create(Path directory, long benchmarkStart) throws IOException {
+        Path path = Files.createTempFile(directory, "latency-", ".seg");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        LatencySpillFile file = new LatencySpillFile(path, channel, benchmarkStart);
+        file.writeSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        file.writeSegment.putInt(MAGIC);
+        file.writeSegment.putInt(VERSION);
+        file.writeSegment.putLong(benchmarkStart);
+        return file;
+    }
+
+    /**
+     * Opens an existing spill file for reading, and indexes its chunks.
+     */
+    static LatencySpillFile open(Path path) throws IOException {
+        long fileSize;
+        long benchmarkStart;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            if (fileSize < HEADER_BYTES)
+                throw new IOException("Not a latency spill file: " + path);
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("Not a latency spill file: " + path);
+            benchmarkStart = header.getLong();
+        }
+
+        LatencySpillFile file = new LatencySpillFile(path, null, benchmarkStart);
+        file.index(fileSize);
+        return file;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getBenchmarkStart() {
+        return benchmarkStart;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Appends the samples of the chunk to the file. The given chunk can be reused
+     * afterwards; the samples are read back with chunk().
+     */
+    void append(EncodedLatencyChunk chunk) throws IOException {
+        int length = chunk.length();
+        if (CHUNK_HEADER_BYTES + length + 4 > SEGMENT_SIZE)
+            throw new IllegalArgumentException("Chunk of " + length + " bytes does not fit in a segment");
+
+        // Keep room for the end marker after the chunk. The full segment is dropped, and
+        // unmapped once it has been collected.
+        if (writeSegment.remaining() < CHUNK_HEADER_BYTES + length + 4) {
+            if (writeSegment.remaining() >= 4)
+                writeSegment.putInt(SKIP_MARKER);
+            writeSegmentIndex++;
+            writeSegment = channel.map(FileChannel.MapMode.READ_WRITE, (long) writeSegmentIndex * SEGMENT_SIZE, SEGMENT_SIZE);
+        }
+
+        addChunk((long) writeSegmentIndex * SEGMENT_SIZE + writeSegment.position(), chunk.size);
+        writeSegment.putInt(chunk.size);
+        writeSegment.putInt(length);
+        writeSegment.put(chunk.bytes(), 0, length);
+    }
+
+    /**
+     * Returns a chunk that reads the samples of the given chunk from the mapped file.
+     */
+    LatencyChunk chunk(int index) throws IOException {
+        if (index < 0 || index >= chunkCount)
+            throw new IndexOutOfBoundsException("Chunk " + index + " of " + chunkCount);
+
+        long offset = chunkOffsets[index];
+        ByteBuffer segment = readSegment((int) (offset / SEGMENT_SIZE));
+        int position = (int) (offset % SEGMENT_SIZE);
+
+        int samples = segment.getInt(position);
+        int length = segment.getInt(position + 4);
+        return new MappedChunk(slice(segment, position + CHUNK_HEADER_BYTES, length), samples);
+    }
+
+    /**
+     * Writes the mapped segment back to disk and closes the file. The chunks remain
+     * readable, since reading maps the file on its own.
+     */
+    void close() throws IOException {
+        if (channel == null)
+            return;
+
+        if (writeSegment != null) {
+            writeSegment.force();
+            writeSegment = null;
+        }
+        channel.close();
+    }
+
+    /**
+     * Finds the chunks of a file, one segment at a time.
+     */
+    private void index(long fileSize) throws IOException {
+        for (int i = 0; (long) i * SEGMENT_SIZE < fileSize; i++) {
+            ByteBuffer segment = readSegment(i).duplicate();
+            if (i == 0)
+                segment.position(HEADER_BYTES);
+
+            while (segment.remaining() >= CHUNK_HEADER_BYTES) {
+                int samples = segment.getInt();
+                if (samples == 0)
+                    return; // End of the data
+                if (samples == SKIP_MARKER)
+                    break; // Continue in the next segment
+
+                int length = segment.getInt();
+                addChunk((long) i * SEGMENT_SIZE + segment.position() - CHUNK_HEADER_BYTES, samples);
+                segment.position(segment.position() + length);
+            }
+        }
+    }
+
+    private void addChunk(long offset, int samples) {
+        if (chunkCount == chunkOffsets.length)
+            chunkOffsets = Arrays.copyOf(chunkOffsets, 2 * chunkCount);
+        chunkOffsets[chunkCount++] = offset;
+        sampleCount += samples;
+    }
+
+    /**
+     * Maps the segment for reading, keeping only the last one. The mapping stays valid
+     * after its channel has been closed.
+     */
+    private MappedByteBuffer readSegment(int index) throws IOException {
+        if (index != readSegmentIndex) {
+            try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+                long offset = (long) index * SEGMENT_SIZE;
+                readSegment = reader.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(reader.size() - offset, SEGMENT_SIZE));
+            }
+            readSegmentIndex = index;
+        }
+        return readSegment;
+    }
+
+    private static ByteBuffer slice(ByteBuffer segment, int offset, int length) {
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * A full chunk whose encoded samples live in a mapped segment instead of on the heap.
+     */
+    private static final class MappedChunk extends LatencyChunk {
+        private final ByteBuffer samples;
+
+        MappedChunk(ByteBuffer samples, int size) {
+            this.samples = samples;
+            this.size = size;
+        }
+
+        @Override
+        boolean isFull() {
+            return true;
+        }
+
+        @Override
+        void add(int transType, int startOffset, int latency, int response, int workerId, int phaseId) {
+            throw new UnsupportedOperationException("A spilled chunk can not be modified");
+        }
+
+        @Override
+        Reader reader() {
+            return new EncodedLatencyChunk.Decoder(samples.duplicate());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package main.java.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits until the next intended arrival, and keeps statistics on how well the actual
+ * arrivals follow the schedule.
+ * <p>
+ * Thread.sleep rounds up to the timer slack of the OS, which is tens of microseconds or
+ * more, so at high rates the arrivals are released in bursts. The strategies trade CPU
+ * for precision:
+ * <ul>
+ * <li>SLEEP: Thread.sleep, cheap but coarse</li>
+ * <li>PARK: LockSupport.parkNanos, finer than sleep but still subject to timer slack</li>
+ * <li>PARK_SPIN: park until shortly before the deadline and spin for the rest</li>
+ * <li>SPIN: spin until the deadline, precise but occupies a core</li>
+ * </ul>
+ * Schedule lag (how late an arrival was released) and inter-arrival jitter (how much an
+ * actual gap between arrivals differs from the intended gap) are kept in nanoseconds.
+ */
+public final class Pacer {
+
+    public enum Strategy {
+        SLEEP,
+        PARK,
+        PARK_SPIN,
+        SPIN
+    }
+
+    /**
+     * PARK_SPIN spins for the last part of a wait that is shorter than this
+     */
+    static final long SPIN_THRESHOLD_NS = 50000L;
+
+    /**
+     * Track lag and jitter up to a minute, in nanoseconds
+     */
+    private static final long HIGHEST_NS = 60L * 1000 * 1000 * 1000;
+
+    private final Strategy strategy;
+    private final LatencyHistogram lag = new LatencyHistogram(HIGHEST_NS, LatencyReport.SIGNIFICANT_DIGITS);
+    private final LatencyHistogram jitter = new LatencyHistogram(HIGHEST_NS, LatencyReport.SIGNIFICANT_DIGITS);
+
+    private long firstActual;
+    private long previousIntended;
+    private long previousActual;
+    private long arrivals;
+
+    // The actual gaps between arrivals, for their coefficient of variation
+    private double gapSum;
+    private double gapSquareSum;
+
+    public Pacer(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Waits until System.nanoTime reaches the deadline and returns the time of waking up.
+     */
+    public long awaitUntil(long deadline) throws InterruptedException {
+        long now = System.nanoTime();
+
+        while (now < deadline) {
+            long remaining = deadline - now;
+
+            switch (strategy) {
+                case SLEEP:
+                    Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+                    break;
+                case PARK:
+                    LockSupport.parkNanos(remaining);
+                    break;
+                case PARK_SPIN:
+                    if (remaining > SPIN_THRESHOLD_NS)
+                        LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NS);
+                    else
+                        Thread.onSpinWait();
+                    break;
+                default:
+                    Thread.onSpinWait();
+            }
+
+            // Parking does not throw, so check for an interrupt ourselves
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            now = System.nanoTime();
+        }
+        return now;
+    }
+
+    /**
+     * Records that the arrival intended at the given time was released at actual.
+     */
+    public void recordArrival(long intended, long actual) {
+        lag.record(Math.max(0, actual - intended));
+
+        if (arrivals == 0) {
+            firstActual = actual;
+        } else {
+            long actualGap = actual - previousActual;
+            jitter.record(Math.abs(actualGap - (intended - previousIntended)));
+            gapSum += actualGap;
+            gapSquareSum += (double) actualGap * actualGap;
+        }
+
+        previousIntended = intended;
+        previousActual = actual;
+        arrivals++;
+    }
+
+    /**
+     * Forgets all arrivals, for instance at the start of a new phase.
+     */
+    public void reset() {
+        lag.reset();
+        jitter.reset();
+        arrivals = 0;
+        gapSum = 0;
+        gapSquareSum = 0;
+    }
+
+    public LatencyHistogram getLag() {
+        return lag;
+    }
+
+    public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    public long getArrivals() {
+        return arrivals;
+    }
+
+    /**
+     * Returns the rate at which arrivals were actually released, per second.
+     */
+    public double getOfferedRate() {
+        if (arrivals < 2 || previousActual == firstActual)
+            return 0;
+        return (arrivals - 1) * 1000000000.0 / (previousActual - firstActual);
+    }
+
+    /**
+     * Returns the coefficient of variation of the actual gaps between arrivals, which is
+     * close to 0 for regular arrivals and close to 1 for Poisson arrivals.
+     */
+    public double getGapVariation() {
+        long gaps = arrivals - 1;
+        if (gaps < 2)
+            return 0;
+
+        double mean = gapSum / gaps;
+        double variance = Math.max(0, gapSquareSum / gaps - mean * mean);
+        return mean == 0 ? 0 : Math.sqrt(variance) / mean;
+    }
+
+    public String summarize() {
+        return String.format("Pacing (%s): %d arrivals, offered %.1f TPS, gap variation %.2f",
+                strategy, arrivals, getOfferedRate(), getGapVariation())
+                + "\n  " + LatencyReport.formatLine("Schedule lag", "ns", lag)
+                + "\n  " + LatencyReport.formatLine("Jitter", "ns", jitter);
+    }
+}
@@ -0,0 +1,207 @@
+package main.java.util;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * One phase of a workload schedule: how long it runs, the rate over time, how arrivals
+ * are spread and which transaction types are submitted.
+ * <p>
+ * The rate is a function of the time since the start of the phase. Besides a constant
+ * rate, it can ramp linearly from one rate to another, climb in a number of equal steps,
+ * or follow a sine wave around a base rate, so one run can sweep the load and produce a
+ * capacity curve. The phase settings are changed with the fluent setters before the
+ * workload starts.
+ */
+public final class Phase {
+
+    public enum Arrival {
+        REGULAR,
+        POISSON
+    }
+
+    public enum Shape {
+        CONSTANT,
+        RAMP,
+        STEP,
+        SINE
+    }
+
+    /**
+     * The transaction type submitted when no mix is given
+     */
+    public static final int DEFAULT_TYPE = 4;
+
+    /**
+     * While the rate is zero, check again this often whether it went up
+     */
+    private static final long IDLE_INTERVAL_NS = 1000000L;
+
+    private final int duration; // Seconds
+    private final Shape shape;
+    private final double rate;
+    private final double targetRate; // End rate of a ramp or step, amplitude of a sine
+    private final double period; // Seconds per sine wave, number of steps
+
+    private Arrival arrival = Arrival.REGULAR;
+    private double[] mix;
+    private MixDistribution mixDistribution;
+
+    private Phase(int duration, Shape shape, double rate, double targetRate, double period) {
+        if (duration <= 0)
+            throw new IllegalArgumentException("The duration of a phase must be positive, not " + duration);
+        if (rate < 0 || (shape != Shape.SINE && targetRate < 0))
+            throw new IllegalArgumentException("The rate of a phase can not be negative");
+
+        this.duration = duration;
+        this.shape = shape;
+        this.rate = rate;
+        this.targetRate = targetRate;
+        this.period = period;
+        mix(defaultMix());
+    }
+
+    public static Phase constant(int duration, double rate) {
+        return new Phase(duration, Shape.CONSTANT, rate, rate, 0);
+    }
+
+    /**
+     * A rate going linearly from fromRate at the start to toRate at the end of the phase.
+     */
+    public static Phase ramp(int duration, double fromRate, double toRate) {
+        return new Phase(duration, Shape.RAMP, fromRate, toRate, 0);
+    }
+
+    /**
+     * A rate going from fromRate to toRate in the given number of steps of equal length.
+     */
+    public static Phase step(int duration, double fromRate, double toRate, int steps) {
+        if (steps < 2)
+            throw new IllegalArgumentException("A step phase needs at least two steps, not " + steps);
+        return new Phase(duration, Shape.STEP, fromRate, toRate, steps);
+    }
+
+    /**
+     * A rate of baseRate + amplitude * sin(2 pi t / period). Where that is negative, no
+     * transactions are submitted.
+     */
+    public static Phase sine(int duration, double baseRate, double amplitude, double periodSeconds) {
+        if (periodSeconds <= 0)
+            throw new IllegalArgumentException("The period of a sine phase must be positive");
+        return new Phase(duration, Shape.SINE, baseRate, amplitude, periodSeconds);
+    }
+
+    public Phase arrival(Arrival arrival) {
+        this.arrival = arrival;
+        return this;
+    }
+
+    /**
+     * Sets the weights of the transaction types, indexed by type.
+     */
+    public Phase mix(double... weights) {
+        this.mix = weights.clone();
+        this.mixDistribution = new MixDistribution(mix);
+        return this;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public long getDurationNs() {
+        return duration * 1000000000L;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public Arrival getArrival() {
+        return arrival;
+    }
+
+    /**
+     * Returns the rate in transactions per second at the given time since the start of
+     * the phase. The rate may be zero, but never negative.
+     */
+    public double getRate(long elapsedNs) {
+        double t = elapsedNs / 1000000000.0;
+
+        switch (shape) {
+            case RAMP:
+                return rate + (targetRate - rate) * Math.min(1.0, t / duration);
+            case STEP:
+                int steps = (int) period;
+                int level = Math.min(steps - 1, (int) (t / duration * steps));
+                return rate + (targetRate - rate) * level / (steps - 1);
+            case SINE:
+                return Math.max(0.0, rate + targetRate * Math.sin(2 * Math.PI * t / period));
+            default:
+                return rate;
+        }
+    }
+
+    /**
+     * Returns the time until the next arrival at the given rate. If the rate is zero,
+     * this is the time after which to look at the rate again.
+     */
+    public long getInterval(double rate, SplittableRandom rng) {
+        if (rate <= 0)
+            return IDLE_INTERVAL_NS;
+
+        if (arrival == Arrival.POISSON)
+            return Math.max(1L, (long) ((-Math.log(1 - rng.nextDouble()) / rate) * 1000000000.));
+        else
+            return Math.max(1L, (long) (1000000000 / rate + 0.5));
+    }
+
+    /**
+     * Returns a transaction type drawn from the mix.
+     */
+    public int nextType(SplittableRandom rng) {
+        return mixDistribution.nextInt(rng);
+    }
+
+    /**
+     * Returns the number of transactions the phase should submit, the integral of its rate.
+     */
+    public long getExpectedCount() {
+        long steps = duration * 1000L;
+        double total = 0;
+        for (long ms = 0; ms < steps; ms++)
+            total += getRate(ms * 1000000L + 500000L) / 1000.0;
+        return Math.round(total);
+    }
+
+    @Override
+    public String toString() {
+        String rates;
+        switch (shape) {
+            case RAMP:
+                rates = "ramp " + rate + " -> " + targetRate + " TPS";
+                break;
+            case STEP:
+                rates = (int) period + " steps " + rate + " -> " + targetRate + " TPS";
+                break;
+            case SINE:
+                rates = "sine " + rate + " +/- " + targetRate + " TPS every " + period + " s";
+                break;
+            default:
+                rates = rate + " TPS";
+        }
+        return duration + " s, " + rates + ", " + arrival.name().toLowerCase() + " arrivals, mix " + Arrays.toString(mix);
+    }
+
+    private static double[] defaultMix() {
+        double[] weights = new double[DEFAULT_TYPE + 1];
+        weights[DEFAULT_TYPE] = 1.0;
+        return weights;
+    }
+
+    private static final class MixDistribution extends RandomParameters.AliasDistribution {
+        MixDistribution(double[] weights) {
+            super("mix", weights);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package main.java.util;
+
+/**
+ * Stores the samples of a chunk field by field, in parallel primitive arrays.
+ */
+final class PrimitiveLatencyChunk extends LatencyChunk {
+
+    private final int capacity;
+    private final int[] transTypes;
+    private final int[] startOffsets;
+    private final int[] latencies;
+    private final int[] responses;
+    private final int[] workerIds;
+    private final int[] phaseIds;
+
+    PrimitiveLatencyChunk(int capacity) {
+        this.capacity = capacity;
+        this.transTypes = new int[capacity];
+        this.startOffsets = new int[capacity];
+        this.latencies = new int[capacity];
+        this.responses = new int[capacity];
+        this.workerIds = new int[capacity];
+        this.phaseIds = new int[capacity];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    @Override
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    @Override
+    void add(int transType, int startOffset, int latency, int response, int workerId, int phaseId) {
+        assert size < capacity;
+
+        transTypes[size] = transType;
+        startOffsets[size] = startOffset;
+        latencies[size] = latency;
+        responses[size] = response;
+        workerIds[size] = workerId;
+        phaseIds[size] = phaseId;
+
+        size++;
+    }
+
+    @Override
+    Reader reader() {
+        return new Reader() {
+            private int index = 0;
+
+            @Override
+            public int next(LatencyRecord.Sample sample) {
+                assert index < size;
+
+                sample.tranType = transTypes[index];
+                sample.latencyUs = latencies[index];
+                sample.responseUs = responses[index];
+                sample.workerId = workerIds[index];
+                sample.phaseId = phaseIds[index];
+
+                return startOffsets[index++];
+            }
+        };
+    }
+}
@@ -1,7 +1,9 @@
 package main.java.util;
 
-import java.sql.Timestamp;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class RandomParameters {
 
@@ -87,42 +89,165 @@ public class RandomParameters {
 
     private static List<String> regions = Arrays.asList("Africa", "Asia", "Europe", "North America", "Oceania", "South America");
     private static List<Character> alphabet = Arrays.asList('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z');
-    private static List<String> su_comment = Arrays.asList("good", "bad");
+    private static final String[] suComments = {"good", "bad"};
+    private static final char[] alphabetChars = new char[alphabet.size()];
+
+    static {
+        for (int i = 0; i < alphabetChars.length; i++)
+            alphabetChars[i] = alphabet.get(i);
+    }
+
+    /**
+     * The nations and regions above, compiled into dense tables indexed by nationkey and
+     * regionkey. The names are also kept as UTF-8 bytes for writing them out directly.
+     */
+    private static final String[] nationNames;
+    private static final String[] regionNames;
+    private static final byte[][] nationNameBytes;
+    private static final byte[][] regionNameBytes;
+    private static final int[] nationToRegionKey;
+    private static final int[][] regionToNations;
+    private static final Map<String, Integer> regionKeys = new HashMap<>();
+
+    static {
+        nationNames = nations.toArray(new String[0]);
+        regionNames = regions.toArray(new String[0]);
+
+        nationNameBytes = new byte[nationNames.length][];
+        for (int nationkey = 0; nationkey < nationNames.length; nationkey++)
+            nationNameBytes[nationkey] = nationNames[nationkey].getBytes(StandardCharsets.UTF_8);
+
+        regionNameBytes = new byte[regionNames.length][];
+        for (int regionkey = 0; regionkey < regionNames.length; regionkey++) {
+            regionNameBytes[regionkey] = regionNames[regionkey].getBytes(StandardCharsets.UTF_8);
+            regionKeys.put(regionNames[regionkey], regionkey);
+        }
+
+        nationToRegionKey = new int[nationNames.length];
+        int[] perRegion = new int[regionNames.length];
+        for (int nationkey = 0; nationkey < nationNames.length; nationkey++) {
+            int regionkey = regionKeys.get(nationToRegion.get(nationNames[nationkey]));
+            nationToRegionKey[nationkey] = regionkey;
+            perRegion[regionkey]++;
+        }
+
+        regionToNations = new int[regionNames.length][];
+        for (int regionkey = 0; regionkey < regionNames.length; regionkey++)
+            regionToNations[regionkey] = new int[perRegion[regionkey]];
+
+        int[] filled = new int[regionNames.length];
+        for (int nationkey = 0; nationkey < nationNames.length; nationkey++) {
+            int regionkey = nationToRegionKey[nationkey];
+            regionToNations[regionkey][filled[regionkey]++] = nationkey;
+        }
+    }
+
+    /**
+     * The distribution type is given as name[:parameter[:parameter]], for instance
+     * "uniform", "zipfian:0.8", "nurand:1023", "hotspot:0.2:0.8" or "gaussian:0.15".
+     * Parameters that are left out get the defaults below.
+     */
+    private static final double DEFAULT_ZIPFIAN_THETA = 0.99;
+    private static final int DEFAULT_NURAND_A = 255;
+    private static final double DEFAULT_HOT_FRACTION = 0.2;
+    private static final double DEFAULT_HOT_PROBABILITY = 0.8;
+    private static final double DEFAULT_GAUSSIAN_STDDEV = 0.15;
+
+    /**
+     * The random stream the default seed is taken from, far from the streams handed out
+     * to threads and to the dataset generator
+     */
+    private static final long SEED_STREAM = -1L;
 
     private String distributionType;
+    private String distributionName;
+    private double[] distributionParameters;
+    private Distribution[] distributions = new Distribution[0]; // Indexed by size
     private int regionCount = 0;
     private int nationCount = 0;
     private int warehouses;
+    private final long seed;
 
+    /**
+     * The nationkeys of the initial dataset, per regionkey, and the number of draws per
+     * region that are still used to cover all of its nations before drawing at random
+     */
+    private final int[][] regionNationKeys;
+    private final int[] regionNationCount;
+
+    /**
+     * Uses a seed that only depends on the master seed of RandomStreams. It is taken
+     * from a stream of its own, so creating parameters does not shift the numbers drawn
+     * by the calling thread.
+     */
     public RandomParameters(String distributionType, int warehouses) {
+        this(distributionType, warehouses, RandomStreams.forStream(SEED_STREAM).nextLong());
+    }
+
+    /**
+     * The seed fixes the random constants of the distributions, such as C of NURand, so
+     * that the same seed always gives the same distributions whichever thread uses them.
+     */
+    public RandomParameters(String distributionType, int warehouses, long seed) {
         this.distributionType = distributionType;
         this.warehouses = warehouses;
+        this.seed = seed;
+
+        String[] parts = distributionType.split(":");
+        this.distributionName = parts[0].trim().toLowerCase();
+        this.distributionParameters = new double[parts.length - 1];
+        try {
+            for (int i = 1; i < parts.length; i++)
+                distributionParameters[i - 1] = Double.parseDouble(parts[i].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid distribution parameters: " + distributionType, e);
+        }
+
+        switch (distributionName) {
+            case "uniform":
+            case "zipfian":
+            case "nurand":
+            case "hotspot":
+            case "gaussian":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution type: " + distributionType);
+        }
 
         // The nation and region pairs are considered in groups. The number of warehouses
         // (regions) is the limiting factor, so the regions are selected in groups of regions.size().
         // If there are fewer than regions.size() warehouses, then the number of regions and
         // nations is equal to the number of warehouses.
+        int bound = warehouses > regions.size() ? regions.size() : warehouses;
+
+        // Keep the nationkeys of the initial dataset per region, so that a random nation
+        // within a region can be drawn directly
+        this.regionNationKeys = new int[regionNames.length][];
+        for (int regionkey = 0; regionkey < regionNames.length; regionkey++) {
+            int[] nationkeys = regionToNations[regionkey];
+            int count = 0;
+            while (count < nationkeys.length && nationkeys[count] < bound * 10)
+                count++;
+            regionNationKeys[regionkey] = Arrays.copyOf(nationkeys, count);
+        }
+
+        this.regionNationCount = new int[regionNames.length];
     }
 
     public static long convertDateToLong(int year, int month, int day) {
-        Timestamp ts = new Timestamp(year - 1900, month - 1, day, 0, 0, 0, 0);
-        return ts.getTime();
+        return DateUtil.toMillis(DateUtil.epochDay(year, month, day));
     }
 
     public static long addMonthsToDate(long ts, int months) {
-        Date date = new Date(ts);
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-        cal.add(Calendar.MONTH, months);
-        return cal.getTime().getTime();
+        return DateUtil.addMonths(ts, months);
     }
 
     public static int randBetween(int start, int end) {
-        return start + (int) Math.round(Math.random() * (end - start));
+        return start + (int) Math.round(RandomStreams.current().nextDouble() * (end - start));
     }
 
     public static double randDoubleBetween(int start, int end) {
-        return start + Math.random() * (end - start);
+        return start + RandomStreams.current().nextDouble() * (end - start);
     }
 
     // ***********************************************
@@ -158,39 +283,79 @@ public class RandomParameters {
      * @return a random nationkey
      */
     public int getRandomNationKey(int regionkey) {
-        int count = 0;
-        while (true) {
-            int nationkey = getRandomNationKey();
-            if (regionkey == getRegionKey(nationkey))
-                return nationkey;
-
-            count++;
-
-            // Error out if we have tried too many times
-            if (count >= 1000)
-                throw new RuntimeException("Error trying to generate a random nationkey with a region. " +
-                        "Stuck in an infinite loop");
-        }
+        if (regionkey < 0 || regionkey >= regionNationKeys.length || regionNationKeys[regionkey].length == 0)
+            throw new IllegalArgumentException("The region with regionkey " + regionkey +
+                    " is not part of the generated dataset for " + warehouses + " warehouses");
+
+        int[] nationkeys = regionNationKeys[regionkey];
+
+        // Make sure all nations of the region are represented before drawing at random
+        if (regionNationCount[regionkey] < nationkeys.length)
+            return nationkeys[regionNationCount[regionkey]++];
+        else
+            return nationkeys[getDistributionType(nationkeys.length).nextInt()];
+    }
+
+    public static int getRegionKey(int nationkey) {
+        return nationToRegionKey[nationkey];
+    }
+
+    /**
+     * Returns the regionkey of the named region, or -1 if there is no such region.
+     */
+    public static int getRegionKey(String region) {
+        Integer regionkey = regionKeys.get(region);
+        return regionkey == null ? -1 : regionkey;
+    }
+
+    public static String getNationName(int nationkey) {
+        return nationNames[nationkey];
+    }
+
+    public static String getRegionName(int regionkey) {
+        return regionNames[regionkey];
     }
 
-    public int getRegionKey(int nationkey) {
-        String nation = nations.get(nationkey);
-        String region = nationToRegion.get(nation);
-        return regions.indexOf(region);
+    /**
+     * Returns the UTF-8 encoded name of the nation. The array is shared and must not be modified.
+     */
+    public static byte[] getNationNameBytes(int nationkey) {
+        return nationNameBytes[nationkey];
+    }
+
+    /**
+     * Returns the UTF-8 encoded name of the region. The array is shared and must not be modified.
+     */
+    public static byte[] getRegionNameBytes(int regionkey) {
+        return regionNameBytes[regionkey];
+    }
+
+    public static int getNationCount() {
+        return nationNames.length;
+    }
+
+    public static int getRegionCount() {
+        return regionNames.length;
+    }
+
+    /**
+     * Returns the nationkeys of all nations in the region. The array is shared and must not be modified.
+     */
+    public static int[] getNationKeys(int regionkey) {
+        return regionToNations[regionkey];
     }
 
     public String getRandomRegion() {
-        return regions.get(getRandomRegionKey());
+        return regionNames[getRandomRegionKey()];
     }
 
     public String getRandomNation() {
-        return nations.get(getRandomNationKey());
+        return nationNames[getRandomNationKey()];
     }
 
     public String getRandomNation(String region) {
-        int regionkey = regions.indexOf(region);
-        int nationkey = getRandomNationKey(regionkey);
-        return nations.get(nationkey);
+        int nationkey = getRandomNationKey(getRegionKey(region));
+        return nationNames[nationkey];
     }
 
     private int getRandomRegionKey(){
@@ -209,16 +374,31 @@ public class RandomParameters {
     //                      Other
     // ***********************************************
 
+    /**
+     * Returns a copy of the alphabet random characters are drawn from.
+     */
+    public static char[] getAlphabet() {
+        return alphabetChars.clone();
+    }
+
     public Character generateRandomCharacter() {
-        Distribution dist = getDistributionType(alphabet.size());
-        int rand = dist.nextInt();
-        return alphabet.get(rand);
+        return generateRandomChar();
+    }
+
+    /**
+     * Returns a random letter of the alphabet, without boxing it.
+     */
+    public char generateRandomChar() {
+        Distribution dist = getDistributionType(alphabetChars.length);
+        return alphabetChars[dist.nextInt()];
     }
 
+    /**
+     * Returns one of the fixed supplier comments. The strings are constants, so nothing
+     * is allocated.
+     */
     public String getRandomSuComment() {
-        Distribution dist = getDistributionType(su_comment.size());
-        int rand = dist.nextInt();
-        return su_comment.get(rand);
+        return suComments[getDistributionType(suComments.length).nextInt()];
     }
 
     public String getRandomPhoneCountryCode() {
@@ -227,16 +407,166 @@ public class RandomParameters {
         return Integer.toString(rand);
     }
 
-    private Distribution getDistributionType(int size) {
-        Distribution dist = null;
+    // ***********************************************
+    //                  Bulk generation
+    // ***********************************************
+
+    /**
+     * Fills the array with random nationkeys, like calls to getRandomNationKey().
+     */
+    public void fillNationKeys(int[] out) {
+        fillNationKeys(out, 0, out.length, RandomStreams.current());
+    }
+
+    public void fillNationKeys(int[] out, int from, int to, SplittableRandom rng) {
+        int bound = warehouses > regions.size() ? regions.size() : warehouses;
+        Distribution dist = getDistributionType(bound * 10);
+
+        int i = from;
+        while (i < to && nationCount < bound)
+            out[i++] = nationCount++;
+        for (; i < to; i++)
+            out[i] = dist.nextInt(rng);
+    }
+
+    /**
+     * Fills the array with random nationkeys from parallel tasks, see fillParallel. Only the
+     * first keys, which make sure all nations are represented, are handed out in order.
+     */
+    public void fillNationKeysParallel(int[] out, SplittableRandom rng) {
+        int bound = warehouses > regions.size() ? regions.size() : warehouses;
+        Distribution dist = getDistributionType(bound * 10);
+
+        int start = 0;
+        while (start < out.length && nationCount < bound)
+            out[start++] = nationCount++;
+
+        int offset = start;
+        fillParallel(out.length - offset, rng, (from, to, random) -> {
+            for (int i = offset + from; i < offset + to; i++)
+                out[i] = dist.nextInt(random);
+        });
+    }
+
+    /**
+     * Fills the first len characters of the array with random letters, like calls to
+     * generateRandomCharacter().
+     */
+    public void fillRandomChars(char[] out, int len) {
+        fillRandomChars(out, 0, len, RandomStreams.current());
+    }
+
+    public void fillRandomChars(char[] out, int from, int to, SplittableRandom rng) {
+        Distribution dist = getDistributionType(alphabetChars.length);
+        for (int i = from; i < to; i++)
+            out[i] = alphabetChars[dist.nextInt(rng)];
+    }
+
+    /**
+     * Fills the array with random phone country codes, like calls to
+     * getRandomPhoneCountryCode() but without converting them to strings.
+     */
+    public void fillPhoneCountryCodes(int[] out) {
+        fillPhoneCountryCodes(out, 0, out.length, RandomStreams.current());
+    }
+
+    public void fillPhoneCountryCodes(int[] out, int from, int to, SplittableRandom rng) {
+        Distribution dist = getDistributionType(nationNames.length);
+        for (int i = from; i < to; i++)
+            out[i] = dist.nextInt(rng) + 10;
+    }
+
+    /**
+     * Fills a range of an array from the given generator.
+     */
+    public interface RangeFill {
+        void fill(int from, int to, SplittableRandom rng);
+    }
+
+    /**
+     * Splits [0, length) into fork-join tasks that each fill their part from their own
+     * generator. The generators are split off the given one along a fixed tree, so the
+     * result only depends on the generator and the length, not on the scheduling.
+     */
+    public static void fillParallel(int length, SplittableRandom rng, RangeFill fill) {
+        if (length <= 0)
+            return;
+
+        ForkJoinPool.commonPool().invoke(new FillTask(0, length, rng, fill));
+    }
+
+    private static final class FillTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 1 << 14;
+
+        private final int from;
+        private final int to;
+        private final SplittableRandom rng;
+        private final RangeFill fill;
 
-        if (distributionType.equals("uniform")) {
-            dist = new UniformDistribution(0, size - 1);
+        FillTask(int from, int to, SplittableRandom rng, RangeFill fill) {
+            this.from = from;
+            this.to = to;
+            this.rng = rng;
+            this.fill = fill;
         }
 
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                fill.fill(from, to, rng);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            FillTask right = new FillTask(mid, to, rng.split(), fill);
+            FillTask left = new FillTask(from, mid, rng, fill);
+            invokeAll(left, right);
+        }
+    }
+
+    /**
+     * Returns the distribution over [0, size) of the configured type. Distributions
+     * are stateless, so they are created once per size and shared.
+     */
+    private Distribution getDistributionType(int size) {
+        Distribution[] cache = distributions;
+        if (size < cache.length && cache[size] != null)
+            return cache[size];
+
+        Distribution dist = createDistribution(size);
+
+        if (size >= cache.length)
+            cache = Arrays.copyOf(cache, size + 1);
+        cache[size] = dist;
+        distributions = cache;
+
         return dist;
     }
 
+    private Distribution createDistribution(int size) {
+        switch (distributionName) {
+            case "zipfian":
+                return new ZipfianDistribution(size, distributionParameter(0, DEFAULT_ZIPFIAN_THETA));
+            case "nurand":
+                // C is the run-time constant of TPC-C, derived from the seed and the size
+                int a = (int) distributionParameter(0, DEFAULT_NURAND_A);
+                return new NURandDistribution(size, a, new SplittableRandom(seed + size).nextInt(a + 1));
+            case "hotspot":
+                return new HotspotDistribution(size, distributionParameter(0, DEFAULT_HOT_FRACTION),
+                        distributionParameter(1, DEFAULT_HOT_PROBABILITY));
+            case "gaussian":
+                return new GaussianDistribution(size, distributionParameter(0, DEFAULT_GAUSSIAN_STDDEV));
+            default:
+                return new UniformDistribution(0, size - 1);
+        }
+    }
+
+    private double distributionParameter(int index, double defaultValue) {
+        return index < distributionParameters.length ? distributionParameters[index] : defaultValue;
+    }
+
     /**
      * The exponential distribution used by the TPC, for instance to calculate the
      * transaction's thinktime.
@@ -260,11 +590,11 @@ public class RandomParameters {
     }
 
 
-    public class UniformDistribution extends Distribution{
+    public static class UniformDistribution extends Distribution{
 
-        private int max;
-        private int min;
-        private int interval;
+        private final int max;
+        private final int min;
+        private final int interval;
 
         public UniformDistribution(int min, int max) {
             super("uniform");
@@ -274,20 +604,189 @@ public class RandomParameters {
         }
 
         @Override
-        public int nextInt(){
-            Random rng = new Random();
+        public int nextInt(SplittableRandom rng){
             return rng.nextInt(interval) + min;
         }
 
         public double mean() {
-            return ((double)((long)(max + (long)max))) / 2.0;
+            return ((double)((long)min + (long)max)) / 2.0;
+        }
+
+    }
+
+    /**
+     * A distribution over [0, size) with arbitrary weights, sampled with the alias method
+     * (Vose). The tables are built once; drawing a value takes one random column and one
+     * random double, so it is O(1) and does not allocate.
+     */
+    public static abstract class AliasDistribution extends Distribution {
+
+        private final double[] probability;
+        private final int[] alias;
+
+        protected AliasDistribution(String name, double[] weights) {
+            super(name);
+
+            int size = weights.length;
+            if (size == 0)
+                throw new IllegalArgumentException("A distribution needs at least one value");
+
+            double total = 0;
+            for (double weight : weights)
+                total += weight;
+
+            this.probability = new double[size];
+            this.alias = new int[size];
+
+            // Scale the weights so that the average column holds exactly 1.0, then let
+            // every small column borrow the rest of its space from a large one
+            double[] scaled = new double[size];
+            int[] small = new int[size];
+            int[] large = new int[size];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < size; i++) {
+                scaled[i] = weights[i] * size / total;
+                if (scaled[i] < 1.0)
+                    small[smallCount++] = i;
+                else
+                    large[largeCount++] = i;
+            }
+
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+
+                probability[less] = scaled[less];
+                alias[less] = more;
+
+                scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+                if (scaled[more] < 1.0)
+                    small[smallCount++] = more;
+                else
+                    large[largeCount++] = more;
+            }
+
+            // Whatever is left is full, up to rounding errors
+            while (largeCount > 0)
+                probability[large[--largeCount]] = 1.0;
+            while (smallCount > 0)
+                probability[small[--smallCount]] = 1.0;
+        }
+
+        @Override
+        public int nextInt(SplittableRandom rng) {
+            int column = rng.nextInt(probability.length);
+            return rng.nextDouble() < probability[column] ? column : alias[column];
+        }
+    }
+
+    /**
+     * Zipfian distribution where value i has a weight of 1 / (i + 1)^theta, so the lowest
+     * values are the most popular. A theta of 0 is uniform; YCSB uses 0.99.
+     */
+    public static class ZipfianDistribution extends AliasDistribution {
+
+        public ZipfianDistribution(int size, double theta) {
+            super("zipfian", zipfianWeights(size, theta));
+        }
+
+        private static double[] zipfianWeights(int size, double theta) {
+            if (theta < 0)
+                throw new IllegalArgumentException("The zipfian theta must not be negative: " + theta);
+
+            double[] weights = new double[size];
+            for (int i = 0; i < size; i++)
+                weights[i] = 1.0 / Math.pow(i + 1, theta);
+            return weights;
+        }
+    }
+
+    /**
+     * The non-uniform random distribution of TPC-C (clause 2.1.6) over [0, size):
+     * ((random(0, A) | random(0, size - 1)) + C) % size. The exact probabilities are
+     * computed by enumerating all (A + 1) * size combinations once.
+     */
+    public static class NURandDistribution extends AliasDistribution {
+
+        public NURandDistribution(int size, int a, int c) {
+            super("nurand", nurandWeights(size, a, c));
+        }
+
+        private static double[] nurandWeights(int size, int a, int c) {
+            if (a < 0 || c < 0)
+                throw new IllegalArgumentException("The NURand constants must not be negative: A=" + a + ", C=" + c);
+
+            double[] weights = new double[size];
+            for (int x = 0; x <= a; x++) {
+                for (int y = 0; y < size; y++)
+                    weights[(int) (((long) (x | y) + c) % size)]++;
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * A hotspot distribution where the first hotFraction of the values receive
+     * hotProbability of the draws, both spread uniformly within their set.
+     */
+    public static class HotspotDistribution extends AliasDistribution {
+
+        public HotspotDistribution(int size, double hotFraction, double hotProbability) {
+            super("hotspot", hotspotWeights(size, hotFraction, hotProbability));
         }
 
+        private static double[] hotspotWeights(int size, double hotFraction, double hotProbability) {
+            if (hotFraction < 0 || hotFraction > 1 || hotProbability < 0 || hotProbability > 1)
+                throw new IllegalArgumentException("The hotspot fraction and probability must be between 0 and 1");
+
+            int hot = Math.max(1, Math.min(size, (int) Math.round(size * hotFraction)));
+            int cold = size - hot;
+
+            double[] weights = new double[size];
+            for (int i = 0; i < size; i++) {
+                if (cold == 0)
+                    weights[i] = 1.0;
+                else
+                    weights[i] = i < hot ? hotProbability / hot : (1.0 - hotProbability) / cold;
+            }
+            return weights;
+        }
     }
 
-    public abstract class Distribution {
+    /**
+     * A normal distribution centered on the middle of [0, size), with a standard deviation
+     * of stddevFraction * size, discretized and truncated to the range.
+     */
+    public static class GaussianDistribution extends AliasDistribution {
 
-        String name = null;
+        public GaussianDistribution(int size, double stddevFraction) {
+            super("gaussian", gaussianWeights(size, stddevFraction));
+        }
+
+        private static double[] gaussianWeights(int size, double stddevFraction) {
+            if (stddevFraction <= 0)
+                throw new IllegalArgumentException("The gaussian standard deviation must be positive: " + stddevFraction);
+
+            double mean = (size - 1) / 2.0;
+            double stddev = stddevFraction * size;
+
+            double[] weights = new double[size];
+            for (int i = 0; i < size; i++) {
+                double z = (i - mean) / stddev;
+                weights[i] = Math.exp(-0.5 * z * z);
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * A distribution of ints. Distributions hold no mutable state; the random numbers
+     * come from the stream that is passed in, or from the stream of the calling thread.
+     */
+    public static abstract class Distribution {
+
+        final String name;
 
         public Distribution(String name){
             this.name=name;
@@ -297,7 +796,11 @@ public class RandomParameters {
             return this.name;
         }
 
-        public abstract int nextInt();
+        public int nextInt() {
+            return nextInt(RandomStreams.current());
+        }
+
+        public abstract int nextInt(SplittableRandom rng);
     }
 
 }
@@ -0,0 +1,63 @@
+package main.java.util;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out independent random number streams, so that threads generating parameters
+ * never contend on a shared generator.
+ * <p>
+ * Every thread gets its own SplittableRandom on first use. When a master seed is set,
+ * the streams are derived from it and a run can be reproduced: stream n always produces
+ * the same numbers, and threads are assigned streams in the order they first draw a
+ * number. Without a master seed, every run uses a different seed.
+ */
+public final class RandomStreams {
+
+    private static final AtomicLong nextStream = new AtomicLong();
+    private static volatile long masterSeed = new SplittableRandom().nextLong();
+
+    private static final ThreadLocal<SplittableRandom> current = new ThreadLocal<SplittableRandom>() {
+        @Override
+        protected SplittableRandom initialValue() {
+            return forStream(nextStream.getAndIncrement());
+        }
+    };
+
+    private RandomStreams() {
+        // Static methods only
+    }
+
+    /**
+     * Sets the master seed of all streams. This must be done before any thread draws
+     * a number, since threads keep the stream they were given.
+     */
+    public static void setMasterSeed(long seed) {
+        masterSeed = seed;
+        nextStream.set(0);
+    }
+
+    /**
+     * Returns the random number stream of the calling thread.
+     */
+    public static SplittableRandom current() {
+        return current.get();
+    }
+
+    /**
+     * Returns a new generator for the given stream, which only depends on the master
+     * seed and the stream id.
+     */
+    public static SplittableRandom forStream(long streamId) {
+        return new SplittableRandom(mix(masterSeed + mix(streamId + 1)));
+    }
+
+    /**
+     * The MurmurHash3 finalizer, which spreads nearby stream ids over unrelated seeds.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
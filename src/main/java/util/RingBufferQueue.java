@@ -0,0 +1,134 @@
+package main.java.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer, multi-consumer queue backed by a ring of preallocated slots.
+ * <p>
+ * Every slot carries a sequence number that tells producers and consumers whose turn it
+ * is to use the slot (see D. Vyukov's bounded MPMC queue). A producer claims a slot by
+ * advancing the tail with a CAS, stores the element and publishes it by bumping the slot
+ * sequence; consumers do the same on the head. No locks are taken and, unlike a
+ * LinkedList, nothing is allocated per element.
+ */
+public class RingBufferQueue<E> {
+
+    private final int capacity;
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong head = new AtomicLong(); // Next position to poll
+    private final AtomicLong tail = new AtomicLong(); // Next position to offer
+
+    public RingBufferQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+
+        this.capacity = capacity;
+        this.buffer = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+
+        // Slot i is initially free for the producer at position i
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Inserts the element at the tail of the queue if there is a free slot.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException();
+
+        long pos = tail.get();
+        while (true) {
+            int index = index(pos);
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                // The slot is free for this position; try to claim it
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[index] = element;
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The consumer has not released the slot yet; the queue is full
+                return false;
+            } else {
+                // Another producer claimed the slot in the meantime
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Retrieves and removes the head of the queue.
+     *
+     * @return the head of the queue, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = index(pos);
+            long diff = sequences.get(index) - (pos + 1);
+
+            if (diff == 0) {
+                // The slot holds a published element for this position; try to claim it
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E element = (E) buffer[index];
+                    buffer[index] = null;
+                    sequences.set(index, pos + capacity);
+                    return element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                // The producer has not published the slot yet; the queue is empty
+                return null;
+            } else {
+                // Another consumer claimed the slot in the meantime
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Removes all elements currently in the queue.
+     */
+    public void clear() {
+        while (poll() != null) {
+            // Drain...
+        }
+    }
+
+    /**
+     * Returns an estimate of the number of elements in the queue. The value is exact
+     * when no other thread is modifying the queue.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0)
+            return 0;
+
+        return (int) Math.min(size, capacity);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int index(long pos) {
+        // The capacity is not required to be a power of two, so that the queue
+        // limit can be set exactly.
+        return (int) (pos % capacity);
+    }
+}
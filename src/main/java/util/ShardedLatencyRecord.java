@@ -0,0 +1,149 @@
+package main.java.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * A latency record that is split in one shard per worker. Every worker only writes to
+ * its own shard, so recording needs no synchronization. Iterating merges the shards by
+ * start time, which results in one globally ordered stream of samples without copying
+ * them into a single record.
+ */
+public class ShardedLatencyRecord implements Iterable<LatencyRecord.Sample> {
+
+    private final List<LatencyRecord> shards;
+
+    public ShardedLatencyRecord(List<LatencyRecord> shards) {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("A sharded latency record needs at least one shard");
+
+        // Start times are offsets from the benchmark start, so all shards must agree on it
+        long benchmarkStart = shards.get(0).benchmarkStartNs;
+        for (LatencyRecord shard : shards) {
+            if (shard.benchmarkStartNs != benchmarkStart)
+                throw new IllegalArgumentException("All shards must have the same benchmark start time");
+        }
+
+        this.shards = new ArrayList<>(shards);
+    }
+
+    /**
+     * Returns the shard owned by the given worker.
+     */
+    public LatencyRecord shard(int workerId) {
+        return shards.get(workerId);
+    }
+
+    public List<LatencyRecord> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * The start time all sample start times are relative to.
+     */
+    public long getBenchmarkStart() {
+        return shards.get(0).benchmarkStartNs;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the number of samples recorded by all shards.
+     */
+    public int size() {
+        int size = 0;
+        for (LatencyRecord shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    /**
+     * Returns the samples of all shards, ordered by start time. Like the iterator of a
+     * single record, the returned sample is only valid until the next call to next().
+     */
+    @Override
+    public Iterator<LatencyRecord.Sample> iterator() {
+        return new MergeIterator();
+    }
+
+    /**
+     * The current sample of one shard.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        final int shardIndex;
+        final Iterator<LatencyRecord.Sample> samples;
+        LatencyRecord.Sample head;
+
+        Cursor(int shardIndex, Iterator<LatencyRecord.Sample> samples) {
+            this.shardIndex = shardIndex;
+            this.samples = samples;
+        }
+
+        boolean advance() {
+            head = samples.hasNext() ? samples.next() : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int cmp = head.compareTo(other.head);
+
+            // Break ties by shard, so the merge order is deterministic
+            return cmp != 0 ? cmp : Integer.compare(shardIndex, other.shardIndex);
+        }
+    }
+
+    /**
+     * A k-way merge over the shard iterators. The cursor of the last returned sample
+     * is only advanced on the following call, since the shard iterators reuse their
+     * sample instance.
+     */
+    private final class MergeIterator implements Iterator<LatencyRecord.Sample> {
+        private final PriorityQueue<Cursor> queue = new PriorityQueue<>(shards.size());
+        private Cursor last;
+
+        MergeIterator() {
+            for (int i = 0; i < shards.size(); i++) {
+                Cursor cursor = new Cursor(i, shards.get(i).iterator());
+                if (cursor.advance())
+                    queue.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Don't advance the last cursor here, as that would overwrite the sample
+            // that was just returned
+            return !queue.isEmpty() || (last != null && last.samples.hasNext());
+        }
+
+        @Override
+        public LatencyRecord.Sample next() {
+            requeueLast();
+            if (queue.isEmpty())
+                throw new NoSuchElementException();
+
+            last = queue.poll();
+            return last.head;
+        }
+
+        private void requeueLast() {
+            if (last != null) {
+                if (last.advance())
+                    queue.add(last);
+                last = null;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove is not supported");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Generates random text into reusable char[] and byte[] buffers.
+ * <p>
+ * Like the text pool of the TPC-H dbgen, a long random string is generated once, and
+ * every string handed out is a slice of it at a random offset. Generating a string of
+ * any length then takes two random numbers and an array copy, instead of a random number
+ * and a lookup per character. The pool is never modified after construction, so one
+ * generator can be shared by any number of threads, each with its own SplittableRandom.
+ */
+public final class TextGenerator {
+
+    public static final int DEFAULT_POOL_SIZE = 1 << 20;
+
+    private final char[] pool;
+    private final byte[] poolBytes;
+
+    /**
+     * Creates a pool of DEFAULT_POOL_SIZE random letters of the RandomParameters alphabet.
+     */
+    public TextGenerator(SplittableRandom rng) {
+        this(RandomParameters.getAlphabet(), DEFAULT_POOL_SIZE, rng);
+    }
+
+    public TextGenerator(char[] alphabet, int poolSize, SplittableRandom rng) {
+        if (alphabet.length == 0 || poolSize <= 0)
+            throw new IllegalArgumentException("The text pool needs an alphabet and a positive size");
+
+        this.pool = new char[poolSize];
+        for (int i = 0; i < poolSize; i++)
+            pool[i] = alphabet[rng.nextInt(alphabet.length)];
+
+        this.poolBytes = new String(pool).getBytes(StandardCharsets.UTF_8);
+        if (poolBytes.length != poolSize)
+            throw new IllegalArgumentException("The alphabet may only contain single byte characters");
+    }
+
+    public int getPoolSize() {
+        return pool.length;
+    }
+
+    /**
+     * Returns a random character of the pool.
+     */
+    public char nextChar(SplittableRandom rng) {
+        return pool[rng.nextInt(pool.length)];
+    }
+
+    /**
+     * Writes a random string with a length in [minLength, maxLength] to out, starting at
+     * offset, and returns its length.
+     */
+    public int fill(char[] out, int offset, int minLength, int maxLength, SplittableRandom rng) {
+        int length = nextLength(minLength, maxLength, rng);
+        System.arraycopy(pool, rng.nextInt(pool.length - length + 1), out, offset, length);
+        return length;
+    }
+
+    /**
+     * Writes a random string with a length in [minLength, maxLength] to out as single
+     * byte characters, starting at offset, and returns its length.
+     */
+    public int fill(byte[] out, int offset, int minLength, int maxLength, SplittableRandom rng) {
+        int length = nextLength(minLength, maxLength, rng);
+        System.arraycopy(poolBytes, rng.nextInt(poolBytes.length - length + 1), out, offset, length);
+        return length;
+    }
+
+    /**
+     * Puts a random string with a length in [minLength, maxLength] into the buffer as
+     * single byte characters and returns its length. The buffer must have room for
+     * maxLength bytes.
+     */
+    public int fill(ByteBuffer out, int minLength, int maxLength, SplittableRandom rng) {
+        int length = nextLength(minLength, maxLength, rng);
+        out.put(poolBytes, rng.nextInt(poolBytes.length - length + 1), length);
+        return length;
+    }
+
+    /**
+     * Fills count strings with lengths in [minLength, maxLength] back to back into out,
+     * and stores the end offset of string i in ends[i]. out must have room for
+     * count * maxLength characters.
+     */
+    public void fill(char[] out, int[] ends, int count, int minLength, int maxLength, SplittableRandom rng) {
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            offset += fill(out, offset, minLength, maxLength, rng);
+            ends[i] = offset;
+        }
+    }
+
+    public void fill(byte[] out, int[] ends, int count, int minLength, int maxLength, SplittableRandom rng) {
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            offset += fill(out, offset, minLength, maxLength, rng);
+            ends[i] = offset;
+        }
+    }
+
+    private int nextLength(int minLength, int maxLength, SplittableRandom rng) {
+        if (minLength < 0 || maxLength < minLength || maxLength > pool.length)
+            throw new IllegalArgumentException("Invalid length range [" + minLength + ", " + maxLength +
+                    "] for a text pool of " + pool.length + " characters");
+
+        return minLength == maxLength ? minLength : minLength + rng.nextInt(maxLength - minLength + 1);
+    }
+}
@@ -0,0 +1,119 @@
+package main.java.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * What a worker does when it finds the work queue empty. The strategies trade the
+ * latency of handing a procedure to an idle worker against the CPU the idle workers
+ * burn, which is taken from the system under test when it runs on the same machine:
+ * <ul>
+ * <li>BUSY_SPIN: poll again immediately, the lowest latency at a full core per worker</li>
+ * <li>SPIN_WAIT: like BUSY_SPIN, with Thread.onSpinWait as a hint to the CPU</li>
+ * <li>YIELD: Thread.yield between polls, which lets other threads run but still uses a
+ * full core when there is nothing else to run</li>
+ * <li>BACKOFF: spin, then yield, then park for exponentially longer up to
+ * MAX_BACKOFF_NS, so a worker that stays idle uses almost no CPU</li>
+ * <li>BLOCKING: wait on a condition that the producer signals after posting work. This
+ * needs the producer to call signal(), see Workload.setWaitStrategy. As a safety net
+ * waiters also wake up after MAX_BLOCK_NS on their own.</li>
+ * </ul>
+ * The spinning strategies should not be used with virtual threads, which share a few
+ * carrier threads and would not give up their carrier.
+ * <p>
+ * One instance is shared by all workers of a pool and the producer.
+ */
+public final class WaitStrategy {
+
+    public enum Type {
+        BUSY_SPIN,
+        SPIN_WAIT,
+        YIELD,
+        BACKOFF,
+        BLOCKING
+    }
+
+    static final int BACKOFF_SPINS = 100;
+    static final int BACKOFF_YIELDS = 10;
+    static final long MIN_BACKOFF_NS = 1000L;
+    static final long MAX_BACKOFF_NS = 1000000L;
+    static final long MAX_BLOCK_NS = 10000000L;
+
+    private final Type type;
+
+    // Only used by BLOCKING
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int waiting = 0;
+
+    public WaitStrategy(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Called by a worker that found the queue empty. idleCount is the number of times in
+     * a row that happened before, so strategies can back off.
+     */
+    public void idle(RingBufferQueue<?> queue, int idleCount) {
+        switch (type) {
+            case BUSY_SPIN:
+                break;
+            case SPIN_WAIT:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case BACKOFF:
+                if (idleCount < BACKOFF_SPINS) {
+                    Thread.onSpinWait();
+                } else if (idleCount < BACKOFF_SPINS + BACKOFF_YIELDS) {
+                    Thread.yield();
+                } else {
+                    int shift = Math.min(idleCount - BACKOFF_SPINS - BACKOFF_YIELDS, 20);
+                    LockSupport.parkNanos(Math.min(MIN_BACKOFF_NS << shift, MAX_BACKOFF_NS));
+                }
+                break;
+            default:
+                block(queue);
+        }
+    }
+
+    /**
+     * Called by the producer after posting work, to wake up a blocked worker.
+     */
+    public void signal() {
+        // Cheap when nobody waits. A worker announces itself before it checks the
+        // queue one last time, and we read the announcement after posting, so
+        // one of the two always sees the other.
+        if (waiting == 0)
+            return;
+
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void block(RingBufferQueue<?> queue) {
+        lock.lock();
+        try {
+            waiting++;
+            if (queue.isEmpty())
+                notEmpty.awaitNanos(MAX_BLOCK_NS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting--;
+            lock.unlock();
+        }
+    }
+}
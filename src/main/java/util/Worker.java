@@ -1,31 +1,114 @@
 package main.java.util;
 
-import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 public class Worker implements Runnable {
 
-    private final LinkedList<Workload.SubmittedProcedure> workQueue;
+    /**
+     * How long the simulated execution of a procedure takes by default
+     */
+    public static final long DEFAULT_SERVICE_TIME_US = 5000L;
+
+    /**
+     * How long a worker that is not admitted waits before it checks again
+     */
+    private static final long DEFER_PARK_NS = 100000L;
+
+    private final RingBufferQueue<Workload.SubmittedProcedure> workQueue;
+    private final LatencyRecord latencies;
+    private final int workerId;
+    private final WaitStrategy waitStrategy;
+    private final LatencyBreakdown breakdown = new LatencyBreakdown();
+    private long serviceTimeUs = DEFAULT_SERVICE_TIME_US;
+    private BooleanSupplier admission;
     private Random rng = new Random(System.currentTimeMillis());
     private int rate;
     private int cnt = 0;
+    private volatile long completedCount = 0; // Only written by the worker itself
+
+    public Worker(RingBufferQueue<Workload.SubmittedProcedure> workQueue, int rate, int workerId, LatencyRecord latencies){
+        this(workQueue, rate, workerId, latencies, new WaitStrategy(WaitStrategy.Type.YIELD));
+    }
 
-    public Worker(LinkedList<Workload.SubmittedProcedure> workQueue, int rate){
+    public Worker(RingBufferQueue<Workload.SubmittedProcedure> workQueue, int rate, int workerId, LatencyRecord latencies,
+                  WaitStrategy waitStrategy) {
         this.workQueue = workQueue;
         this.rate = rate;
+        this.workerId = workerId;
+        this.latencies = latencies;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Sets how long the simulated execution of a procedure takes.
+     */
+    public void setServiceTimeUs(long serviceTimeUs) {
+        if (serviceTimeUs < 0)
+            throw new IllegalArgumentException("The service time must not be negative: " + serviceTimeUs);
+        this.serviceTimeUs = serviceTimeUs;
+    }
+
+    /**
+     * Makes the worker only take new procedures while the admission check passes, for
+     * instance to hold back analytical queries while transactions are queueing up.
+     */
+    public void setAdmission(BooleanSupplier admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * The number of procedures this worker has completed, which may be read while it runs.
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Where the response time of the procedures executed by this worker went. It should
+     * only be read once the worker has stopped.
+     */
+    public LatencyBreakdown getBreakdown() {
+        return breakdown;
+    }
+
+    /**
+     * Waits until the service time has passed since the start. Thread.sleep rounds to
+     * whole milliseconds, so the worker parks until the deadline instead, which keeps the
+     * microsecond resolution of the service time.
+     */
+    private void simulateExecution(long startNs) throws InterruptedException {
+        long deadline = startNs + serviceTimeUs * 1000;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+
+            // Parking does not throw, so check for an interrupt ourselves
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
     }
 
     @Override
     public void run() {
         try {
-            System.out.println("Executing worker");
-            long start = System.nanoTime();
-            while (true){
+            System.out.println("Executing worker " + workerId);
+            int idleCount = 0;
+            while (!Thread.currentThread().isInterrupted()){
+
+                if (admission != null && !admission.getAsBoolean()) {
+                    LockSupport.parkNanos(DEFER_PARK_NS);
+                    continue;
+                }
 
                 Workload.SubmittedProcedure proc = workQueue.poll();
 
-                if (proc == null)
+                if (proc == null) {
+                    waitStrategy.idle(workQueue, idleCount++);
                     continue;
+                }
+                idleCount = 0;
 
                 proc.setCurrentTime();
 
@@ -35,13 +118,26 @@ public class Worker implements Runnable {
                 } else
                     cnt++;
 
+                long startNs = System.nanoTime();
+                proc.setStartTime(startNs);
+
                 int threshold = 1000 / rate; // Rate at which the Worker is just able to keep up with the queue
                 int thresholdAjd = threshold - threshold / 2; // Allow some space for random variance
 //                int sleep = thresholdAjd + rng.nextInt(threshold); // Add some random variance
-                Thread.sleep(5);
+                simulateExecution(startNs);
+
+                long endNs = System.nanoTime();
+                proc.setEndTime(endNs);
+
+                long intendedUs = proc.getIntendedStartTime() / 1000;
+                latencies.addLatency(proc.getType(), intendedUs, startNs / 1000, endNs / 1000, workerId, proc.getPhaseId());
+                breakdown.record(proc.getType(), proc.getIntendedStartTime(), proc.getSubmittedTime(),
+                        proc.getDequeuedTime(), proc.getStartTime(), proc.getEndTime());
+                proc.release();
+                completedCount++;
             }
         } catch (InterruptedException ex) {
             System.out.println("Interrupted");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,242 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs a number of Workers that all drain the same work queue. Each worker is either
+ * backed by a platform thread or, when the JVM supports it, by its own virtual thread
+ * so that thousands of simulated terminals can be run at once.
+ */
+public class WorkerPool {
+
+    public enum ThreadMode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    /**
+     * Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), looked up reflectively
+     * since virtual threads are not available on every JVM we run on.
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            // Virtual threads are not supported by this JVM
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    private final RingBufferQueue<Workload.SubmittedProcedure> workQueue;
+    private final int rate;
+    private final int size;
+    private final ThreadMode mode;
+    private Path spillDirectory;
+    private WaitStrategy waitStrategy = new WaitStrategy(WaitStrategy.Type.YIELD);
+    private String threadNamePrefix = "worker-";
+    private long serviceTimeUs = Worker.DEFAULT_SERVICE_TIME_US;
+    private BooleanSupplier admission;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private ShardedLatencyRecord latencies;
+
+    /**
+     * @throws IllegalArgumentException if VIRTUAL is requested but the JVM does not
+     *                                  support virtual threads, see isVirtualThreadSupported
+     */
+    public WorkerPool(RingBufferQueue<Workload.SubmittedProcedure> workQueue, int rate, int size, ThreadMode mode) {
+        if (size <= 0)
+            throw new IllegalArgumentException("A worker pool needs at least one worker: " + size);
+        if (mode == ThreadMode.VIRTUAL && !isVirtualThreadSupported())
+            throw new IllegalArgumentException("Virtual threads are not supported by this JVM (" +
+                    System.getProperty("java.version") + "), use ThreadMode.PLATFORM");
+
+        this.workQueue = workQueue;
+        this.rate = rate;
+        this.size = size;
+        this.mode = mode;
+    }
+
+    /**
+     * Makes the workers spill their latency samples to files in the given directory,
+     * which keeps the heap usage flat for long soak runs. Must be set before start().
+     */
+    public void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets what idle workers do, see WaitStrategy. Must be set before start(), and with
+     * BLOCKING the producer has to be given the same strategy to signal the workers.
+     */
+    public void setWaitStrategy(WaitStrategy.Type type) {
+        this.waitStrategy = new WaitStrategy(type);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Names the worker threads prefix + worker id. Must be set before start().
+     */
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /**
+     * Sets how long the simulated execution of a procedure takes. Must be set before start().
+     */
+    public void setServiceTimeUs(long serviceTimeUs) {
+        this.serviceTimeUs = serviceTimeUs;
+    }
+
+    /**
+     * Makes the workers only take new procedures while the check passes, see
+     * Worker.setAdmission. Must be set before start().
+     */
+    public void setAdmission(BooleanSupplier admission) {
+        this.admission = admission;
+    }
+
+    public ThreadMode getThreadMode() {
+        return mode;
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null && UNSTARTED != null;
+    }
+
+    /**
+     * Creates and starts the workers. Every worker records into its own shard of the
+     * latency record, and all shards share the same benchmark start time so that they
+     * can be merged afterwards.
+     */
+    public synchronized void start() {
+        if (!threads.isEmpty())
+            throw new IllegalStateException("The worker pool has already been started");
+
+        long benchmarkStartUs = System.nanoTime() / 1000;
+
+        List<LatencyRecord> shards = new ArrayList<>(size);
+        for (int workerId = 0; workerId < size; workerId++)
+            shards.add(newLatencyRecord(benchmarkStartUs));
+        latencies = new ShardedLatencyRecord(shards);
+
+        for (int workerId = 0; workerId < size; workerId++) {
+            Worker worker = new Worker(workQueue, rate, workerId, latencies.shard(workerId), waitStrategy);
+            worker.setServiceTimeUs(serviceTimeUs);
+            worker.setAdmission(admission);
+
+            Thread thread = newThread(worker);
+            thread.setName(threadNamePrefix + workerId);
+
+            workers.add(worker);
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+    }
+
+    /**
+     * Interrupts all workers and waits for them to terminate.
+     */
+    public synchronized void stop() throws InterruptedException {
+        for (Thread thread : threads)
+            thread.interrupt();
+
+        for (Thread thread : threads)
+            thread.join();
+
+        // Write out the remaining samples of spilling records
+        for (LatencyRecord record : getLatencyRecords()) {
+            try {
+                record.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to close the latency spill file " + record.getSpillFile(), e);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the latency record of all workers, which iterates the samples of every
+     * worker ordered by start time. It should only be read once the pool has been stopped.
+     */
+    public ShardedLatencyRecord getLatencyRecord() {
+        return latencies;
+    }
+
+    /**
+     * Returns the latency record of every worker, indexed by the worker id. A record
+     * should only be read once the pool has been stopped.
+     */
+    public List<LatencyRecord> getLatencyRecords() {
+        return latencies == null ? Collections.<LatencyRecord>emptyList() : latencies.getShards();
+    }
+
+    /**
+     * Returns the breakdown of the response times of all workers, see LatencyBreakdown.
+     * It should only be read once the pool has been stopped.
+     */
+    public LatencyBreakdown getBreakdown() {
+        List<LatencyBreakdown> breakdowns = new ArrayList<>(workers.size());
+        for (Worker worker : workers)
+            breakdowns.add(worker.getBreakdown());
+        return LatencyBreakdown.merge(breakdowns);
+    }
+
+    /**
+     * Returns the number of procedures completed by all workers, which may be read
+     * while they run.
+     */
+    public synchronized long getCompletedCount() {
+        long completed = 0;
+        for (Worker worker : workers)
+            completed += worker.getCompletedCount();
+        return completed;
+    }
+
+    private LatencyRecord newLatencyRecord(long benchmarkStartUs) {
+        if (spillDirectory == null)
+            return new LatencyRecord(benchmarkStartUs);
+
+        try {
+            return new LatencyRecord(benchmarkStartUs, spillDirectory);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create a latency spill file in " + spillDirectory, e);
+        }
+    }
+
+    private Thread newThread(Runnable runnable) {
+        if (mode == ThreadMode.VIRTUAL) {
+            try {
+                return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), runnable);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Unable to create a virtual thread", e);
+            }
+        }
+
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
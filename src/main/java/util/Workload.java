@@ -1,150 +1,509 @@
 package main.java.util;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
 
 public class Workload {
 
-    private final int RATE_QUEUE_LIMIT = 10000;
+    public static final int RATE_QUEUE_LIMIT = 10000;
+
+    /**
+     * What to do with a new procedure when the work queue is full.
+     * <ul>
+     * <li>DROP_OLDEST: remove procedures from the front of the queue to make room</li>
+     * <li>DROP_NEWEST: drop the new procedure</li>
+     * <li>BLOCK_PRODUCER: wait until a worker makes room. Later arrivals are posted late,
+     * but keep their intended start time, so the wait shows up in the response times</li>
+     * <li>UNBOUNDED_WITH_ALARM: keep the procedures that do not fit in a backlog on the
+     * producer side, which is moved to the queue as it empties, and raise an alarm every
+     * time the backlog doubles</li>
+     * </ul>
+     * With DROP_OLDEST and DROP_NEWEST the queue is also cleared at the start of every
+     * phase, so a new phase is not measured against the leftovers of the previous one.
+     * BLOCK_PRODUCER and UNBOUNDED_WITH_ALARM never shed work: whatever is still queued
+     * or in the backlog carries over into the next phase. Only what is still in the
+     * backlog when the last phase ends is counted as dropped, since nobody will ever post
+     * it. Dropped procedures, including the ones cleared at the start of a phase, are
+     * counted per transaction type and per phase.
+     */
+    public enum OverloadPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK_PRODUCER,
+        UNBOUNDED_WITH_ALARM
+    }
+
+    /**
+     * How long BLOCK_PRODUCER waits before trying the queue again
+     */
+    private static final long BLOCK_PARK_NS = 10000L;
+
+    /**
+     * How often UNBOUNDED_WITH_ALARM moves the backlog to the queue while the producer
+     * waits for the next arrival
+     */
+    private static final long BACKLOG_POLL_NS = 100000L;
 
-    private final LinkedList<SubmittedProcedure> workQueue;
+    private final RingBufferQueue<SubmittedProcedure> workQueue;
     private ArrayList<LatencyRecord.Sample> samples = new ArrayList<>();
     private LatencyRecord latencies;
 
-    private int rate = 2000; // TPS
-    private int time = 100; // Duration
+    private final List<Phase> phases;
+    private Pacer pacer = new Pacer(Pacer.Strategy.PARK_SPIN);
+    private WaitStrategy waitStrategy;
+
+    private OverloadPolicy overloadPolicy = OverloadPolicy.DROP_OLDEST;
+    private final ArrayDeque<SubmittedProcedure> backlog = new ArrayDeque<>();
+    private int backlogAlarm = RATE_QUEUE_LIMIT;
+    private int maxBacklog = 0;
+
+    /**
+     * Free procedure slots, enough to fill the work queue twice. Only when the backlog
+     * of UNBOUNDED_WITH_ALARM grows beyond that are new slots allocated.
+     */
+    private final RingBufferQueue<SubmittedProcedure> procedurePool;
+    private long procedureAllocations = 0;
+
+    // Dropped procedures per type and per phase, indexed by type and phase id
+    private long[] droppedByType = new long[0];
+    private long[] droppedByPhase = new long[0];
+    private long droppedCount = 0;
+    private int rate; // TPS of the current phase, for logging purposes
     private int previousSecond = 0; // Logging purposes
-    private boolean arrival = false; // Possion = true, Regular = false
 
     private int cnt = 0;
     private int totalCount = 0;
 
-    public Workload(LinkedList<SubmittedProcedure> workQueue, int rate) {
+    public Workload(RingBufferQueue<SubmittedProcedure> workQueue, int rate) {
+        this(workQueue, Collections.singletonList(Phase.constant(100, rate)));
+    }
+
+    /**
+     * Creates a workload that runs the phases one after the other.
+     */
+    public Workload(RingBufferQueue<SubmittedProcedure> workQueue, List<Phase> phases) {
+        if (phases.isEmpty())
+            throw new IllegalArgumentException("A workload needs at least one phase");
+
         this.workQueue = workQueue;
-        this.rate = rate;
+        this.phases = new ArrayList<>(phases);
+
+        this.procedurePool = new RingBufferQueue<>(2 * workQueue.capacity());
+        for (int i = 0; i < procedurePool.capacity(); i++)
+            procedurePool.offer(new SubmittedProcedure(procedurePool));
     }
 
-    public void executeWorkload() {
-        System.out.println("Executing workload");
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
 
-        // Begin measuring the completion time
-        long startTime = System.nanoTime();
+    /**
+     * Sets how the workload waits for the next arrival, see Pacer.
+     */
+    public void setPacingStrategy(Pacer.Strategy strategy) {
+        this.pacer = new Pacer(strategy);
+    }
 
-        // Determine the sleeping interval to meet the specified TPS
-        long intervalNs = getInterval(rate, arrival);
+    public Pacer getPacer() {
+        return pacer;
+    }
 
-        // Set the test duration in nanoseconds based on the user
-        // input stored in the current phase.
-        long testDurationNs = time * 1000000000L;
+    /**
+     * Sets the wait strategy of the workers, which is signalled whenever work is posted.
+     * Only needed for WaitStrategy.Type.BLOCKING.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
 
-        // Prepare values for the main loop
-        long nextInterval = startTime + intervalNs;
-        boolean resetQueues = true;
-        int nextToAdd = 1;
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
 
-        // Main Loop
-        boolean execute = true;
-        while (execute) {
-            // posting new work... and reseting the queue in case we have new
-            // portion of the workload...
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
 
-            addToQueue(nextToAdd, resetQueues);
-            resetQueues = false;
+    /**
+     * The number of procedures that were submitted, including the dropped ones.
+     */
+    public long getSubmittedCount() {
+        return totalCount;
+    }
 
-            // Determine the time to sleep
-            long now = System.nanoTime();
-            long sleep = nextInterval - now;
+    /**
+     * The number of procedures that were dropped instead of executed.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
 
-            while (sleep > 0) {
-                // Sleep for the required duration
-                long sleepMs = sleep / 1000000;
-                long sleepNs = sleep % 1000000;
+    public Histogram<Integer> getDroppedByType() {
+        return toHistogram(droppedByType);
+    }
+
+    public Histogram<Integer> getDroppedByPhase() {
+        return toHistogram(droppedByPhase);
+    }
+
+    /**
+     * The number of procedure slots allocated because the pool ran out.
+     */
+    public long getProcedureAllocations() {
+        return procedureAllocations;
+    }
 
+    public void executeWorkload() {
+        System.out.println("Executing workload");
+
+        SplittableRandom rng = RandomStreams.current();
+        long expectedCount = 0;
+
+        // Begin measuring the completion time
+        long phaseStart = System.nanoTime();
+
+        for (int phaseId = 0; phaseId < phases.size(); phaseId++) {
+            Phase phase = phases.get(phaseId);
+            expectedCount += phase.getExpectedCount();
+            System.out.println("Starting phase " + phaseId + ": " + phase);
+            pacer.reset();
+
+            // Set the test duration in nanoseconds based on the user
+            // input stored in the current phase.
+            long endTime = phaseStart + phase.getDurationNs();
+
+            // Prepare values for the main loop. Every arrival gets an intended start time
+            // from the schedule, independent of when we actually manage to post it, so the
+            // queueing delay is part of the measured response time.
+            long nextArrival = phaseStart;
+            boolean resetQueues = true;
+
+            // Main Loop
+            boolean execute = true;
+            while (execute) {
+                // posting new work... and reseting the queue in case we have new
+                // portion of the workload...
+
+                // Post every arrival whose intended start time has passed. If we woke up
+                // late, several procedures are posted at once, but each of them keeps
+                // its own intended start time. The rate is taken at the arrival itself,
+                // so it follows the shape of the phase.
+                long now = System.nanoTime();
+                drainBacklog();
+                while (nextArrival <= now && nextArrival < endTime) {
+                    double currentRate = phase.getRate(nextArrival - phaseStart);
+                    if (currentRate > 0) {
+                        rate = Math.max(1, (int) currentRate);
+                        addToQueue(phase.nextType(rng), phaseId, nextArrival, resetQueues);
+                        pacer.recordArrival(nextArrival, now);
+                        resetQueues = false;
+                        totalCount++;
+                    }
+
+                    nextArrival += phase.getInterval(currentRate, rng);
+                }
+
+                // Wait for the next arrival, at most until the end of the phase. With a
+                // backlog, wake up regularly to move it to the queue as the workers make
+                // room, so they do not sit idle until the next arrival.
+                long deadline = Math.min(nextArrival, endTime);
+                if (!backlog.isEmpty())
+                    deadline = Math.min(deadline, now + BACKLOG_POLL_NS);
                 try {
-                    Thread.sleep(sleepMs, (int) sleepNs);
+                    now = pacer.awaitUntil(deadline);
                 } catch (InterruptedException e) {
                     throw new RuntimeException(e);
                 }
 
-                //
-                now = System.nanoTime();
-                sleep = nextInterval - now;
+                // Check if the current phase is complete. A producer that was held up
+                // (for instance by BLOCK_PRODUCER) first posts the arrivals it still owes.
+                boolean phaseComplete = (now >= endTime && nextArrival >= endTime);
+
+                if (phaseComplete) {
+                    execute = false;
+                }
             }
 
-            // Compute the next interval and how many messages to deliver
-            intervalNs = 0;
-            nextToAdd = 0;
-            do {
-                intervalNs += getInterval(rate, arrival);
-                nextToAdd++;
-            } while ( -sleep > intervalNs);
+            System.out.println(pacer.summarize());
+
+            // The next phase starts where this one was scheduled to end, so a late
+            // wake-up does not shift the rest of the schedule
+            phaseStart = endTime;
+        }
+
+        shedBacklog();
 
-            nextInterval += intervalNs;
+        System.out.println("Final count: " + totalCount + " and it should be: " + expectedCount);
+        System.out.println(summarizeDrops());
+    }
 
 
-            totalCount++;
+    private void addToQueue(int type, int phaseId, long intendedStartTime, boolean resetQueues) {
+        if (resetQueues && dropsWork())
+            clearQueues();
+
+        // Add the procedure to the end of the queue. The queue is bounded by
+        // RATE_QUEUE_LIMIT, so if we can't keep up with the current rate the
+        // overload policy decides what is dropped.
+        SubmittedProcedure proc = acquire().set(type, phaseId, intendedStartTime);
+        switch (overloadPolicy) {
+            case DROP_OLDEST:
+                while (!post(proc))
+                    countDrop(workQueue.poll());
+                break;
+            case DROP_NEWEST:
+                if (!post(proc))
+                    countDrop(proc);
+                break;
+            case BLOCK_PRODUCER:
+                while (!post(proc)) {
+                    LockSupport.parkNanos(BLOCK_PARK_NS);
+                    if (Thread.currentThread().isInterrupted())
+                        throw new RuntimeException(new InterruptedException());
+                }
+                break;
+            default:
+                // Keep the order: nothing may overtake the backlog
+                if (!backlog.isEmpty() || !post(proc))
+                    addToBacklog(proc);
+        }
+        signalWorkers();
 
+        if (cnt >= rate) {
+            System.out.println("workQueue size: " + workQueue.size());
+            cnt = 0;
+        } else
+            cnt++;
+    }
 
-            // Check if the current phase is complete
-            boolean phaseComplete = (now - startTime >= testDurationNs);
 
-            if (phaseComplete) {
-                execute = false;
-            }
+    private void addToBacklog(SubmittedProcedure proc) {
+        backlog.add(proc);
+        maxBacklog = Math.max(maxBacklog, backlog.size());
+
+        if (backlog.size() >= backlogAlarm) {
+            System.out.println("ALARM: the workers are falling behind, " + backlog.size() +
+                    " procedures are waiting outside the work queue");
+            backlogAlarm *= 2;
         }
+    }
 
-        System.out.println("Final count: " + totalCount + " and it should be: " + time * rate);
+    /**
+     * Moves as much of the backlog to the work queue as fits.
+     */
+    private void drainBacklog() {
+        boolean posted = false;
+        while (!backlog.isEmpty() && post(backlog.peek())) {
+            backlog.poll();
+            posted = true;
+        }
+        if (posted)
+            signalWorkers();
     }
 
+    /**
+     * Offers the procedure to the work queue and stamps it with the time it was posted,
+     * after any wait for room. The stamp is set just before the offer, so a worker that
+     * takes the procedure never sees an old one.
+     */
+    private boolean post(SubmittedProcedure proc) {
+        proc.setSubmittedTime(System.nanoTime());
+        return workQueue.offer(proc);
+    }
 
-    private void addToQueue(int amount, boolean resetQueues) {
-        if (resetQueues)
-            workQueue.clear();
+    private boolean dropsWork() {
+        return overloadPolicy == OverloadPolicy.DROP_OLDEST || overloadPolicy == OverloadPolicy.DROP_NEWEST;
+    }
 
-        assert amount > 0;
+    /**
+     * Counts what is left in the backlog at the end of the run as dropped, in the phase
+     * that submitted it, since it will never be posted.
+     */
+    private void shedBacklog() {
+        drainBacklog();
+        if (backlog.isEmpty())
+            return;
+
+        System.out.println("Shedding " + backlog.size() + " procedures left in the backlog at the end of the run");
+        SubmittedProcedure proc;
+        while ((proc = backlog.poll()) != null)
+            countDrop(proc);
+    }
 
-        // Add the specified number of procedures to the end of the queue.
-        for (int i = 0; i < amount; ++i)
-            workQueue.add(new SubmittedProcedure(4));
+    private void signalWorkers() {
+        if (waitStrategy != null)
+            waitStrategy.signal();
+    }
 
-        if (cnt >= rate) {
-            System.out.println("workQueue size: " + workQueue.size());
-            cnt = 0;
-        } else
-            cnt++;
+    /**
+     * Empties the work queue and the backlog, counting the procedures as dropped.
+     */
+    private void clearQueues() {
+        SubmittedProcedure proc;
+        while ((proc = workQueue.poll()) != null)
+            countDrop(proc);
+        while ((proc = backlog.poll()) != null)
+            countDrop(proc);
+        backlogAlarm = RATE_QUEUE_LIMIT;
+    }
 
+    private void countDrop(SubmittedProcedure proc) {
+        // A worker may have taken the procedure in the meantime
+        if (proc == null)
+            return;
 
-        // Can't keep up with current rate? Remove the oldest transactions
-        // (from the front of the queue).
-        while (workQueue.size() > RATE_QUEUE_LIMIT)
-            workQueue.remove();
+        droppedByType = increment(droppedByType, proc.getType());
+        droppedByPhase = increment(droppedByPhase, proc.getPhaseId());
+        droppedCount++;
+        proc.release();
     }
 
+    private SubmittedProcedure acquire() {
+        SubmittedProcedure proc = procedurePool.poll();
+        if (proc == null) {
+            proc = new SubmittedProcedure(procedurePool);
+            procedureAllocations++;
+        }
+        return proc;
+    }
 
-    private long getInterval(int rate, boolean arrival) {
-        if (arrival)
-            return (long) ((-Math.log(1 - Math.random()) / rate) * 1000000000.);
-        else
-            return (long) (1000000000 / (double) rate + 0.5);
+    /**
+     * Counts are kept in plain arrays, so counting a drop does not box anything.
+     */
+    private static long[] increment(long[] counts, int index) {
+        if (index >= counts.length)
+            counts = Arrays.copyOf(counts, index + 1);
+        counts[index]++;
+        return counts;
     }
 
+    private static Histogram<Integer> toHistogram(long[] counts) {
+        Histogram<Integer> histogram = new Histogram<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0)
+                histogram.put(i, (int) counts[i]);
+        }
+        return histogram;
+    }
 
-    public class SubmittedProcedure {
-        private final long submittedTime;
-        private final long benchStartTime;
+    private String summarizeDrops() {
+        StringBuilder s = new StringBuilder();
+        s.append("Dropped: ").append(droppedCount).append(" with policy ").append(overloadPolicy);
+        if (overloadPolicy == OverloadPolicy.UNBOUNDED_WITH_ALARM)
+            s.append(", largest backlog: ").append(maxBacklog);
+        if (procedureAllocations > 0)
+            s.append(", procedure slots allocated: ").append(procedureAllocations);
+
+        if (droppedCount > 0) {
+            s.append("\nDropped per transaction type:\n").append(getDroppedByType());
+            s.append("\nDropped per phase:\n").append(getDroppedByPhase());
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * A procedure on its way from the workload to a worker. Procedures are preallocated
+     * slots that are reused: the workload takes a free slot from its pool, fills it in
+     * and posts it, and whoever is done with it (the worker that executed it, or the
+     * workload when it is dropped) releases it back to the pool. A slot must not be
+     * touched after it has been released.
+     */
+    public static class SubmittedProcedure {
+        private final RingBufferQueue<SubmittedProcedure> pool;
+        private int type;
+        private int phaseId;
+        private long intendedStartTime;
+        private long submittedTime;
         private long currentTime = 0;
+        private long startTime = 0;
+        private long endTime = 0;
+
+        SubmittedProcedure(RingBufferQueue<SubmittedProcedure> pool) {
+            this.pool = pool;
+        }
 
-        SubmittedProcedure(long benchStartTime) {
-            this.submittedTime = System.nanoTime();
-            this.benchStartTime = benchStartTime;
+        SubmittedProcedure set(int type, int phaseId, long intendedStartTime) {
+            this.type = type;
+            this.phaseId = phaseId;
+            this.intendedStartTime = intendedStartTime;
+            this.submittedTime = 0;
+            this.currentTime = 0;
+            this.startTime = 0;
+            this.endTime = 0;
+            return this;
+        }
+
+        int getType() {
+            return type;
+        }
+
+        /**
+         * The index of the phase in the schedule that submitted the procedure.
+         */
+        int getPhaseId() {
+            return phaseId;
+        }
+
+        /**
+         * The time (System.nanoTime) at which the procedure was scheduled to start
+         * according to the arrival model.
+         */
+        long getIntendedStartTime() {
+            return intendedStartTime;
+        }
+
+        /**
+         * The times (System.nanoTime) at which the procedure was posted to the queue,
+         * taken from the queue by a worker, and started and ended its execution.
+         */
+        long getSubmittedTime() {
+            return submittedTime;
+        }
+
+        long getDequeuedTime() {
+            return currentTime;
+        }
+
+        long getStartTime() {
+            return startTime;
+        }
+
+        long getEndTime() {
+            return endTime;
         }
 
         long getDriftMs() {
             return (currentTime - submittedTime);
         }
 
+        void setSubmittedTime(long submittedTime) {
+            this.submittedTime = submittedTime;
+        }
+
         void setCurrentTime() {
             this.currentTime = System.nanoTime();
         }
+
+        void setStartTime(long startTime) {
+            this.startTime = startTime;
+        }
+
+        void setEndTime(long endTime) {
+            this.endTime = endTime;
+        }
+
+        /**
+         * Returns the slot to its pool. If the pool is full the slot is left to the
+         * garbage collector.
+         */
+        void release() {
+            pool.offer(this);
+        }
     }
 }
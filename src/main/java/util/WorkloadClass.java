@@ -0,0 +1,29 @@
+package main.java.util;
+
+/**
+ * The class of workload a transaction or query belongs to, for instance to split the
+ * TPC-C transactions from the TPC-H queries of a hybrid workload.
+ */
+public enum WorkloadClass {
+    OLTP,
+    OLAP;
+
+    /**
+     * Implemented by keys that know their own workload class.
+     */
+    public interface Classified {
+        WorkloadClass getWorkloadClass();
+    }
+
+    /**
+     * Returns the workload class of the given key. Keys that do not carry a class are
+     * classified by name: TPC-H queries are named Q1 to Q22, everything else is
+     * considered to be a TPC-C transaction.
+     */
+    public static WorkloadClass of(Object key) {
+        if (key instanceof Classified)
+            return ((Classified) key).getWorkloadClass();
+
+        return key != null && key.toString().startsWith("Q") ? OLAP : OLTP;
+    }
+}